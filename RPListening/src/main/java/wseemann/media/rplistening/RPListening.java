@@ -19,12 +19,19 @@
 
 package wseemann.media.rplistening;
 
+import wseemann.media.rplistening.audio.AudioSink;
+import wseemann.media.rplistening.audio.FileAudioSink;
+import wseemann.media.rplistening.audio.LineAudioSink;
+import wseemann.media.rplistening.audio.NullAudioSink;
 import wseemann.media.rplistening.protocol.ConnectionListener;
 import wseemann.media.rplistening.protocol.PrivateListeningSession;
 import wseemann.media.rplistening.ui.RPListeningApp;
 import wseemann.media.rplistening.utils.CommandLineArgs;
+import wseemann.media.rplistening.utils.Constants;
+import wseemann.media.rplistening.utils.DecoderProcessPool;
 import wseemann.media.rplistening.utils.Log;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Scanner;
@@ -73,6 +80,8 @@ public class RPListening {
 				System.out.println("No Roku devices found");
 			}
 		} else if (commandLineArgs.deviceIp == null && testDeviceIp == null) {
+			// Have a decoder ready by the time a session is started
+			DecoderProcessPool.getDefault().prewarm();
 			App.launch(RPListeningApp.class, args);
 		}
 
@@ -84,6 +93,14 @@ public class RPListening {
 			rokuIPAddress = testDeviceIp;
 		}
 
+		AudioSink audioSink = null;
+
+		try {
+			audioSink = createAudioSink(commandLineArgs.audioOutput);
+		} catch (IOException ex) {
+			Log.d(TAG, "Audio output unavailable, using ffplay: " + ex.getMessage());
+		}
+
 		PrivateListeningSession.connect(rokuIPAddress, new ConnectionListener() {
 
 			@Override
@@ -96,7 +113,7 @@ public class RPListening {
 				PrivateListeningSession.disconnect(session);
 				RPListening.session = null;
 			}
-		});
+		}, audioSink);
 		
 		Scanner scanner = new Scanner(System.in);
 		System.out.println("Use ctrl^c to exit...");
@@ -107,4 +124,17 @@ public class RPListening {
 		
 		System.exit(0);
 	}
+
+	private static AudioSink createAudioSink(String audioOutput) throws IOException {
+		if (audioOutput == null || audioOutput.equals("ffplay")) {
+			return null;
+		} else if (audioOutput.equals("java")) {
+			return new LineAudioSink(Constants.RTP_CLOCK_RATE, Constants.AUDIO_CHANNELS,
+					Constants.AUDIO_OUTPUT_BUFFER_MS);
+		} else if (audioOutput.equals("null")) {
+			return new NullAudioSink();
+		} else {
+			return new FileAudioSink(new File(audioOutput));
+		}
+	}
 }
@@ -0,0 +1,50 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.audio;
+
+import java.io.Closeable;
+
+/**
+ * Destination of the PCM audio decoded in process. Samples are 16 bit signed,
+ * interleaved by channel. Writes happen on the session's event loop, so a sink
+ * must never block; when it cannot take the samples it drops them.
+ */
+public interface AudioSink extends Closeable {
+
+	/**
+	 * Writes decoded samples.
+	 *
+	 * @param pcm     Interleaved samples.
+	 * @param offset  Index of the first sample.
+	 * @param samples Number of samples, counting every channel.
+	 */
+	void write(short[] pcm, int offset, int samples);
+
+	/**
+	 * Returns the time audio spends in the sink before it is heard, in
+	 * microseconds.
+	 */
+	long getLatency();
+
+	/**
+	 * Returns the number of samples dropped because the sink was full.
+	 */
+	long getDroppedSamples();
+}
@@ -0,0 +1,100 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.audio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import wseemann.media.rplistening.utils.Log;
+
+/**
+ * Writes the decoded audio to a file as raw 16 bit little endian PCM, for
+ * headless runs and for inspecting what was played.
+ */
+public class FileAudioSink implements AudioSink {
+
+	private static final String TAG = "FileAudioSink";
+
+	private final FileChannel channel;
+
+	/**
+	 * Reusable conversion buffer
+	 */
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * Sample view over the conversion buffer
+	 */
+	private final ShortBuffer samplesView = buffer.asShortBuffer();
+
+	private long droppedSamples;
+
+	/**
+	 * Opens the file, replacing its content.
+	 *
+	 * @param file The file to write to.
+	 * @throws IOException If the file could not be opened.
+	 */
+	public FileAudioSink(File file) throws IOException {
+		channel = new FileOutputStream(file).getChannel();
+	}
+
+	@Override
+	public void write(short[] pcm, int offset, int samples) {
+		if (samples * 2 > buffer.capacity()) {
+			droppedSamples += samples;
+			return;
+		}
+
+		samplesView.clear();
+		samplesView.put(pcm, offset, samples);
+		buffer.clear();
+		buffer.limit(samples * 2);
+
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException ex) {
+			droppedSamples += samples;
+			Log.d(TAG, ex.getMessage());
+		}
+	}
+
+	@Override
+	public long getLatency() {
+		return 0;
+	}
+
+	@Override
+	public long getDroppedSamples() {
+		return droppedSamples;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
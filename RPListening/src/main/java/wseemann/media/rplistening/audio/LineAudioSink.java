@@ -0,0 +1,112 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.audio;
+
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Plays the decoded audio through a {@link SourceDataLine} of the default
+ * mixer. The line buffer is sized in milliseconds: small enough to keep the
+ * output latency low, the jitter buffer in front of it already absorbs the
+ * network jitter. Samples that do not fit into the line are dropped instead of
+ * blocking the event loop.
+ */
+public class LineAudioSink implements AudioSink {
+
+	private final SourceDataLine line;
+
+	/**
+	 * Bytes per second of the line format
+	 */
+	private final int byteRate;
+
+	/**
+	 * Reusable conversion buffer
+	 */
+	private final byte[] bytes;
+
+	private long droppedSamples;
+
+	/**
+	 * Opens and starts the line.
+	 *
+	 * @param sampleRate Sample rate in Hz.
+	 * @param channels   Number of channels.
+	 * @param bufferMs   Size of the line buffer in milliseconds.
+	 * @throws IOException If no line is available for the format.
+	 */
+	public LineAudioSink(int sampleRate, int channels, int bufferMs) throws IOException {
+		AudioFormat format = new AudioFormat(sampleRate, 16, channels, true, false);
+
+		byteRate = sampleRate * channels * 2;
+
+		int bufferSize = byteRate * bufferMs / 1000;
+
+		try {
+			line = AudioSystem.getSourceDataLine(format);
+			line.open(format, bufferSize);
+		} catch (LineUnavailableException | IllegalArgumentException ex) {
+			throw new IOException(ex);
+		}
+
+		bytes = new byte[line.getBufferSize()];
+		line.start();
+	}
+
+	@Override
+	public void write(short[] pcm, int offset, int samples) {
+		int length = samples * 2;
+
+		if (length > line.available()) {
+			droppedSamples += samples;
+			return;
+		}
+
+		for (int i = 0; i < samples; i++) {
+			short sample = pcm[offset + i];
+			bytes[2 * i] = (byte) sample;
+			bytes[2 * i + 1] = (byte) (sample >> 8);
+		}
+
+		line.write(bytes, 0, length);
+	}
+
+	@Override
+	public long getLatency() {
+		long queued = line.getBufferSize() - line.available();
+		return queued * 1000000L / byteRate;
+	}
+
+	@Override
+	public long getDroppedSamples() {
+		return droppedSamples;
+	}
+
+	@Override
+	public void close() {
+		line.stop();
+		line.close();
+	}
+}
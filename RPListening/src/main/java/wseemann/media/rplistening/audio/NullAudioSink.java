@@ -0,0 +1,52 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.audio;
+
+/**
+ * Discards the decoded audio, counting the samples. Meant for headless runs
+ * and tests.
+ */
+public class NullAudioSink implements AudioSink {
+
+	private long writtenSamples;
+
+	@Override
+	public void write(short[] pcm, int offset, int samples) {
+		writtenSamples += samples;
+	}
+
+	@Override
+	public long getLatency() {
+		return 0;
+	}
+
+	@Override
+	public long getDroppedSamples() {
+		return 0;
+	}
+
+	public long getWrittenSamples() {
+		return writtenSamples;
+	}
+
+	@Override
+	public void close() {
+	}
+}
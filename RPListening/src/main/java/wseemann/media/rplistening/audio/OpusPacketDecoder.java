@@ -0,0 +1,390 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import io.github.jaredmdobson.concentus.OpusDecoder;
+import io.github.jaredmdobson.concentus.OpusException;
+import wseemann.media.rplistening.protocol.rtp.RTPPacket;
+import wseemann.media.rplistening.protocol.rtp.RTPPacketSink;
+import wseemann.media.rplistening.utils.Constants;
+import wseemann.media.rplistening.utils.Log;
+
+/**
+ * Decodes the Opus payload of the RTP packets in process and writes the PCM
+ * to an {@link AudioSink}, replacing the external decoder and the loopback hop
+ * to it. The payload and sample buffers are allocated once.
+ *
+ * Gaps in the sequence numbers are lost packets. The frame right before a
+ * packet is recovered from the forward error correction data Opus carries in
+ * the packet, frames further back are concealed by the decoder, up to 120 ms.
+ * Frames before that are written as silence, so the output keeps the sender's
+ * timeline. A gap in the timestamps without a gap in the sequence numbers is a
+ * DTX silence period, the sender sent nothing on purpose, so nothing is
+ * concealed.
+ *
+ * The sound card plays at its own clock, which drifts against the sender's, so
+ * the audio queued in the sink slowly grows or shrinks. Once the queue has
+ * settled its level is taken as the reference; when it wanders off, a sample is
+ * dropped from or repeated in a frame, preferably a quiet one where the change
+ * cannot be heard.
+ */
+public class OpusPacketDecoder implements RTPPacketSink {
+
+	private static final String TAG = "OpusPacketDecoder";
+
+	/**
+	 * Largest Opus frame, 120 ms at 48 kHz, in samples per channel
+	 */
+	private static final int MAX_FRAME_SIZE = 5760;
+
+	/**
+	 * Longest loss concealed, in milliseconds. Concealment of longer losses
+	 * sounds worse than the silence.
+	 */
+	private static final int MAX_CONCEALMENT_MS = 120;
+
+	/**
+	 * Frames decoded before the sink latency is taken as the reference
+	 */
+	private static final int WARMUP_FRAMES = 250;
+
+	/**
+	 * Distance in microseconds the sink latency may wander from the reference
+	 * before it is corrected, twice that and loud frames are corrected as well
+	 */
+	private static final int DRIFT_TOLERANCE_US = 2000;
+
+	/**
+	 * Frames between two corrections, bounding the correction rate
+	 */
+	private static final int CORRECTION_INTERVAL = 4;
+
+	/**
+	 * Largest sample value of a frame considered quiet
+	 */
+	private static final int QUIET_PEAK = 512;
+
+	private final OpusDecoder decoder;
+	private final AudioSink sink;
+	private final int channels;
+
+	/**
+	 * RTP timestamp units per decoded sample
+	 */
+	private final int ticksPerSample;
+
+	/**
+	 * Longest loss concealed, in samples per channel
+	 */
+	private final int maxConcealedSamples;
+
+	private final RTPPacket rtpPacket = new RTPPacket();
+	private final byte[] payload = new byte[2048];
+	private final short[] pcm;
+
+	/**
+	 * True once a packet was decoded, the last sequence number, timestamp and
+	 * frame size are known
+	 */
+	private boolean started;
+	private int lastSeq;
+	private long lastTimestamp;
+
+	/**
+	 * Samples per channel of the last frame
+	 */
+	private int lastFrameSize;
+
+	/**
+	 * Smoothed sink latency and the reference it is held at, in microseconds
+	 */
+	private double sinkLatency;
+	private double referenceLatency;
+
+	/**
+	 * Frames decoded since start, up to the warmup, and since the last
+	 * correction
+	 */
+	private int warmupFrames;
+	private int framesSinceCorrection;
+
+	private long insertedSamples;
+	private long removedSamples;
+
+	private long decodedPackets;
+	private long decodeErrors;
+	private long concealedFrames;
+	private long recoveredFrames;
+	private long droppedFrames;
+	private long dtxGaps;
+
+	/**
+	 * Creates a decoder.
+	 *
+	 * @param sampleRate Sample rate of the stream in Hz.
+	 * @param channels   Number of channels of the stream.
+	 * @param sink       Destination of the decoded audio.
+	 * @throws IOException If the decoder could not be created.
+	 */
+	public OpusPacketDecoder(int sampleRate, int channels, AudioSink sink) throws IOException {
+		try {
+			decoder = new OpusDecoder(sampleRate, channels);
+		} catch (OpusException ex) {
+			throw new IOException(ex);
+		}
+
+		this.sink = sink;
+		this.channels = channels;
+		this.pcm = new short[MAX_FRAME_SIZE * channels];
+		this.ticksPerSample = Constants.RTP_CLOCK_RATE / sampleRate;
+		this.maxConcealedSamples = sampleRate / 1000 * MAX_CONCEALMENT_MS;
+	}
+
+	@Override
+	public void forward(ByteBuffer packet) {
+		int limit = packet.limit();
+
+		if (!rtpPacket.wrap(packet) || rtpPacket.getPayloadLength() > payload.length) {
+			decodeErrors++;
+			packet.position(limit);
+			return;
+		}
+
+		packet.position(rtpPacket.getOffset() + rtpPacket.getPayloadOffset());
+		packet.get(payload, 0, rtpPacket.getPayloadLength());
+		packet.position(limit);
+
+		int seq = rtpPacket.getSequenceNumber();
+		long timestamp = rtpPacket.getTimestamp();
+		int length = rtpPacket.getPayloadLength();
+
+		try {
+			if (started) {
+				handleGap((seq - lastSeq - 1) & 0xFFFF, (int) (timestamp - lastTimestamp), length);
+			}
+
+			int frameSize = decoder.decode(payload, 0, length, pcm, 0, MAX_FRAME_SIZE, false);
+			sink.write(pcm, 0, compensateDrift(frameSize) * channels);
+			decodedPackets++;
+
+			started = true;
+			lastFrameSize = frameSize;
+		} catch (OpusException ex) {
+			decodeErrors++;
+			Log.d(TAG, ex.getMessage());
+		}
+
+		lastSeq = seq;
+		lastTimestamp = timestamp;
+	}
+
+	/**
+	 * Fills the gap before the packet in the payload buffer. The number of lost
+	 * frames comes from the sequence numbers, the timestamps bound it, so a DTX
+	 * period inside the gap is not filled with concealment.
+	 *
+	 * @param lostPackets   Number of sequence numbers skipped.
+	 * @param timestampStep Timestamp distance to the previous packet.
+	 * @param length        Length of the payload of the packet.
+	 */
+	private void handleGap(int lostPackets, int timestampStep, int length) throws OpusException {
+		if (lostPackets == 0) {
+			if (timestampStep > lastFrameSize * ticksPerSample) {
+				dtxGaps++;
+			}
+
+			return;
+		}
+
+		// Frames the timestamps leave room for, the packet itself excluded
+		int missingSamples = timestampStep / ticksPerSample - lastFrameSize;
+		int lostFrames = Math.min(lostPackets, missingSamples / lastFrameSize);
+
+		if (lostFrames <= 0) {
+			// Timestamps do not add up, nothing sensible to fill in
+			droppedFrames += lostPackets;
+			return;
+		}
+
+		int concealable = Math.min(lostFrames, maxConcealedSamples / lastFrameSize);
+
+		// The oldest frames of a long loss are silence
+		if (lostFrames > concealable) {
+			Arrays.fill(pcm, 0, lastFrameSize * channels, (short) 0);
+
+			for (int i = concealable; i < lostFrames; i++) {
+				sink.write(pcm, 0, lastFrameSize * channels);
+				droppedFrames++;
+			}
+		}
+
+		// Conceal all but the last frame, which the packet's FEC data recovers
+		for (int i = 0; i < concealable - 1; i++) {
+			int frameSize = decoder.decode(null, 0, 0, pcm, 0, lastFrameSize, false);
+			sink.write(pcm, 0, frameSize * channels);
+			concealedFrames++;
+		}
+
+		if (concealable > 0) {
+			int frameSize = decoder.decode(payload, 0, length, pcm, 0, lastFrameSize, true);
+			sink.write(pcm, 0, frameSize * channels);
+			recoveredFrames++;
+		}
+	}
+
+	/**
+	 * Holds the sink latency at its reference by dropping or repeating the last
+	 * sample of a frame.
+	 *
+	 * @param frameSize Samples per channel of the decoded frame in the sample
+	 *                  buffer.
+	 * @return Samples per channel to write.
+	 */
+	private int compensateDrift(int frameSize) {
+		long latency = sink.getLatency();
+
+		if (warmupFrames < WARMUP_FRAMES) {
+			sinkLatency = warmupFrames == 0 ? latency : sinkLatency + (latency - sinkLatency) / 16;
+
+			if (++warmupFrames == WARMUP_FRAMES) {
+				referenceLatency = sinkLatency;
+			}
+
+			return frameSize;
+		}
+
+		sinkLatency += (latency - sinkLatency) / 64;
+
+		double error = sinkLatency - referenceLatency;
+
+		if (++framesSinceCorrection < CORRECTION_INTERVAL || Math.abs(error) < DRIFT_TOLERANCE_US
+				|| (Math.abs(error) < 2 * DRIFT_TOLERANCE_US && !isQuiet(frameSize))) {
+			return frameSize;
+		}
+
+		framesSinceCorrection = 0;
+
+		if (error > 0 && frameSize > 1) {
+			// The sink plays slower than we decode, drop the last sample
+			removedSamples++;
+			return frameSize - 1;
+		}
+
+		if (error < 0 && frameSize < MAX_FRAME_SIZE) {
+			// The sink plays faster than we decode, repeat the last sample
+			System.arraycopy(pcm, (frameSize - 1) * channels, pcm, frameSize * channels, channels);
+			insertedSamples++;
+			return frameSize + 1;
+		}
+
+		return frameSize;
+	}
+
+	private boolean isQuiet(int frameSize) {
+		for (int i = 0; i < frameSize * channels; i++) {
+			if (pcm[i] > QUIET_PEAK || pcm[i] < -QUIET_PEAK) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Drops the state of the old stream, so it does not bleed into the first
+	 * frames of the new one and the first gap is not measured across streams.
+	 */
+	@Override
+	public void reset() {
+		decoder.resetState();
+		started = false;
+	}
+
+	/**
+	 * Returns the output latency of the sink in microseconds.
+	 */
+	public long getLatency() {
+		return sink.getLatency();
+	}
+
+	public long getDecodedPackets() {
+		return decodedPackets;
+	}
+
+	public long getDecodeErrors() {
+		return decodeErrors;
+	}
+
+	/**
+	 * Returns the number of lost frames filled in by packet loss concealment.
+	 */
+	public long getConcealedFrames() {
+		return concealedFrames;
+	}
+
+	/**
+	 * Returns the number of lost frames decoded from the forward error
+	 * correction data of the following packet. Without such data in the packet
+	 * the decoder conceals the frame instead.
+	 */
+	public long getRecoveredFrames() {
+		return recoveredFrames;
+	}
+
+	/**
+	 * Returns the number of lost frames not concealed. Those the timestamps
+	 * leave room for are written as silence, the others are left out.
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	/**
+	 * Returns the number of samples per channel repeated to make up for a sink
+	 * playing faster than the sender.
+	 */
+	public long getInsertedSamples() {
+		return insertedSamples;
+	}
+
+	/**
+	 * Returns the number of samples per channel dropped to make up for a sink
+	 * playing slower than the sender.
+	 */
+	public long getRemovedSamples() {
+		return removedSamples;
+	}
+
+	/**
+	 * Returns the number of DTX silence periods seen.
+	 */
+	public long getDtxGaps() {
+		return dtxGaps;
+	}
+
+	@Override
+	public void close() throws IOException {
+		sink.close();
+	}
+}
@@ -24,17 +24,28 @@ import java.util.*;
 import com.jaku.api.QueryRequests;
 import com.jaku.model.Device;
 
-import wseemann.media.rplistening.protocol.rtcp.RTCPThreadHandler;
-import wseemann.media.rplistening.protocol.rtp.RTPThreadHandler;
+import wseemann.media.rplistening.audio.AudioSink;
+import wseemann.media.rplistening.audio.OpusPacketDecoder;
+import wseemann.media.rplistening.protocol.engine.EventLoop;
+import wseemann.media.rplistening.protocol.engine.RTPEngine;
+import wseemann.media.rplistening.protocol.engine.ScheduledTask;
+import wseemann.media.rplistening.protocol.rtcp.RTCPSender;
+import wseemann.media.rplistening.protocol.rtp.RTPPacketForwarder;
+import wseemann.media.rplistening.protocol.rtp.RTPPacketSink;
+import wseemann.media.rplistening.protocol.rtp.RTPReceiver;
+import wseemann.media.rplistening.protocol.utils.RollingPercentiles;
+import wseemann.media.rplistening.protocol.utils.SessionClock;
+import wseemann.media.rplistening.protocol.utils.SystemSessionClock;
 import wseemann.media.rplistening.utils.Constants;
+import wseemann.media.rplistening.utils.DecoderProcessPool;
 import wseemann.media.rplistening.utils.Log;
 import wseemann.media.rplistening.utils.Process;
-import wseemann.media.rplistening.utils.ShellCommand;
 import wseemann.media.rplistening.websocket.RokuWebSocketListener;
 import wseemann.media.rplistening.websocket.WebSocketConnectionImpl;
 
 import java.io.IOException;
 import java.net.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class maintains session related information and provides startup
@@ -55,39 +66,45 @@ public class PrivateListeningSession {
 	 * Payload type for this session.
 	 *
 	 */
-	private static byte payloadType;
+	private byte payloadType;
 
 	/**
 	 * Synchronization Source identifier for this source.
 	 *
 	 */
-	public static long SSRC;
+	public long SSRC;
 
 	/**
 	 * Total Number of RTP data packets sent out by this source since starting
 	 * transmission.
 	 *
 	 */
-	public static long packetCount;
+	public long packetCount;
 
 	/**
 	 * Total Number of payload octets (i.e not including header or padding) sent out
 	 * by this source since starting transmission.
 	 *
 	 */
-	public static long octetCount;
+	public long octetCount;
 
 	/**
-	 * Reference to the RTP Sender and Receiver Thread.
+	 * Media event loop the RTP traffic of this session is handled on, the RTCP
+	 * reports are sent from the engine's control loop.
+	 */
+	private final EventLoop eventLoop;
+
+	/**
+	 * Reference to the RTP Receiver.
 	 *
 	 */
-	public static RTPThreadHandler m_RTPHandler;
+	public RTPReceiver m_RTPReceiver;
 
 	/**
-	 * Reference to the RTCP Sender and Receiver Thread handler.
+	 * Reference to the RTCP Sender.
 	 *
 	 */
-	public static RTCPThreadHandler m_RTCPHandler;
+	public RTCPSender m_RTCPSender;
 
 	/**
 	 * Initialize the Random Number Generator.
@@ -95,6 +112,18 @@ public class PrivateListeningSession {
 	 */
 	private static final Random rnd = new Random();
 
+	/**
+	 * Number of deterministic intervals Td a member may stay silent before it
+	 * times out (M in RFC 3550 6.3.5)
+	 */
+	private static final int MEMBER_TIMEOUT_INTERVALS = 5;
+
+	/**
+	 * Number of intervals T a sender may stay silent before it is no longer
+	 * counted as a sender (RFC 3550 6.3.5)
+	 */
+	private static final int SENDER_TIMEOUT_INTERVALS = 2;
+
 	/**
 	 * RTCP Related state variables. (Sec. 6.3 draft-ietf-avt-rtp-new.ps)
 	 */
@@ -102,149 +131,243 @@ public class PrivateListeningSession {
 	/**
 	 * The last time an RTCP packet was transmitted.
 	 */
-	public static double TimeOfLastRTCPSent = 0;
+	public double TimeOfLastRTCPSent = 0;
 
 	/**
 	 * The current time.
 	 */
-	public static double tc = 0;
+	public double tc = 0;
 
 	/**
 	 * The next scheduled transmission time of an RTCP packet.
 	 */
-	public static double tn = 0;
+	public double tn = 0;
 
 	/**
 	 * The estimated number of session members at time tp.
 	 */
-	public static int pmembers = 0;
+	public int pmembers = 0;
 
 	/**
 	 * The target RTCP bandwidth, i.e., the total bandwidth that will be used for
 	 * RTCP packets by all members of this session, in octets per second. This
 	 * should be 5 parameter supplied to the application at startup.
 	 */
-	public static double rtcp_bw = 0;
+	public double rtcp_bw = 0;
 
 	/**
 	 * Flag that is true if the application has sent data since the 2nd previous
 	 * RTCP report was transmitted.
 	 */
-	public static boolean we_sent = false;
+	public boolean we_sent = false;
 
 	/**
 	 * The average RTCP packet size sent by this user.
 	 */
-	public static double avg_rtcp_size = 0;
+	public double avg_rtcp_size = 0;
 
 	/**
 	 * Flag that is true if the application has not yet sent an RTCP packet.
 	 */
-	public static boolean initial = true;
+	public boolean initial = true;
 
 	/**
 	 * Average size of the packet constructed by the application
 	 */
-	public static double avg_pkt_sz = 0;
+	public double avg_pkt_sz = 0;
 
 	/**
 	 * True if session instantiator requested a close.
 	 */
-	public static boolean IsByeRequested = false;
+	public boolean IsByeRequested = false;
 
 	/**
 	 * Deterministic time interval for next RTCP transmission.
 	 */
-	public static double Td = 0;
+	public double Td = 0;
 
 	/**
 	 * Ramdomized time interval for next RTCP transmission.
 	 */
-	public static double T = 0;
+	public double T = 0;
 
 	/**
 	 * Time this source last sent an RTP Packet
 	 */
-	public static double timeOfLastRTPSent = 0;
+	public double timeOfLastRTPSent = 0;
+
+	/**
+	 * Time source for sessions created from now on.
+	 */
+	private static SessionClock defaultClock = new SystemSessionClock();
+
+	/**
+	 * Time source of the session.
+	 */
+	private final SessionClock clock;
 
 	/**
-	 * A hastable that stores all the sources subscribed to this multicast group
+	 * Round trip times to the device, in microseconds.
 	 */
-	private static Hashtable<Long, Source> sourceMap;
+	private final RollingPercentiles roundTripTime = new RollingPercentiles(64);
 
-	private static WebSocketConnectionImpl webSocketConnection;
-	private static PrivateListeningSession session;
-	private static Process ffplayProcess;
+	/**
+	 * Estimated latency from capture on the device to playout, in microseconds.
+	 */
+	private final RollingPercentiles endToEndLatency = new RollingPercentiles(512);
 
 	/**
-	 * Requires CNAME and session bandwidth. Initializes the SSRC to a randomly generated number.
+	 * One way network delay estimated as half the last round trip time, in
+	 * microseconds.
+	 */
+	private volatile long oneWayDelay;
+
+	/**
+	 * A table that stores all the sources subscribed to this multicast group
+	 */
+	private final SourceTable sourceTable = new SourceTable();
+
+	private WebSocketConnectionImpl webSocketConnection;
+
+	/**
+	 * Set once the outcome of connecting has been reported to the listener
+	 */
+	private final AtomicBoolean settled = new AtomicBoolean();
+
+	/**
+	 * Set once the session started shutting down
+	 */
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private Process ffplayProcess;
+
+	/**
+	 * Local port the audio decoder listens on for RTP, the port above it is
+	 * reserved for the decoder's RTCP. 0 when decoding in process.
+	 */
+	private final int decoderPort;
+
+	/**
+	 * In process decoder, null when packets are forwarded to ffplay.
+	 */
+	private final OpusPacketDecoder opusDecoder;
+
+	/**
+	 * Connects to a Roku device and starts a private listening session. Every
+	 * session owns its sockets and ports, so any number of sessions can run
+	 * side by side in one process.
 	 *
-	 * @param MulticastGroupIPAddress Dotted decimal representation of the Multicast
-	 *                                group IP address.
-	 * @param MulticastGroupPort      Port number of the Multcast group.
-	 * @param RTCPGroupPort           Port on which the session will receive ( and
-	 *                                send to ) the RTCP packets.
-	 * @param RTPSendFromPort         Local port from which the RTP packets are sent
-	 *                                out (must be different from
-	 *                                MulticastGroupPort).
-	 * @param RTCPSendFromPort        Local port from which the RTCP packets are
-	 *                                sent out (must be different from
-	 *                                RTCPGroupPort).
-	 * @param bandwidth               Bandwidth available to the session.
+	 * @param rokuIPAddress Dotted decimal IP address of the Roku device.
+	 * @param listener      Notified once the session is connected or failed.
 	 */
 	public static void connect(String rokuIPAddress, ConnectionListener listener) {
+		connect(rokuIPAddress, listener, null);
+	}
+
+	/**
+	 * Connects to a Roku device and starts a private listening session, choosing
+	 * how the audio is decoded. With a sink the Opus stream is decoded in
+	 * process and written to it, without one it is forwarded to an ffplay
+	 * process.
+	 *
+	 * @param rokuIPAddress Dotted decimal IP address of the Roku device.
+	 * @param listener      Notified once the session is connected or failed.
+	 * @param audioSink     Destination of the decoded audio, or null to decode
+	 *                      with ffplay.
+	 */
+	public static void connect(String rokuIPAddress, ConnectionListener listener, AudioSink audioSink) {
 		try {
 			String rokuAddress = "http://" + rokuIPAddress + ":" + Constants.ROKU_ECP_PORT;
 
 			String hostAddress = InetAddress.getLocalHost().getHostAddress();
 
-			supportsPrivateListening(rokuAddress, listener);
-
-			webSocketConnection = new WebSocketConnectionImpl(rokuAddress,
-					new RokuWebSocketListener() {
-
-				@Override
-				public void onAuthSuccess() {
-					Log.d(TAG, "onAuthSuccess!");
-					webSocketConnection.setAudioOutput(hostAddress + ":" + Constants.RTP_PORT);
-				}
-
-				@Override
-				public void onSetAudioOutput() {
-					Log.d(TAG, "onSetAudioOutput!");
-
-					session = new PrivateListeningSession(
-							rokuIPAddress,
-							hostAddress,
-							Constants.RTP_PORT,
-							Constants.RTCP_PORT,
-							Constants.RTP_PORT,
-							10000
-							);
-					session.setPayloadType(Constants.RTP_PAYLOAD_TYPE);
-					session.startRTPReceiverThread();
-					session.startAudioDecoder();
-					listener.onConnected(session);
-				}
-
-				@Override
-				public void onAuthFailed() {
-					listener.onFailure(new Exception("Auth failure"));
-				}
-			});
-
-			webSocketConnection.connect();
+			if (!supportsPrivateListening(rokuAddress, listener)) {
+				return;
+			}
+
+			PrivateListeningSession session = new PrivateListeningSession(
+					rokuIPAddress,
+					hostAddress,
+					Constants.RTCP_PORT,
+					10000,
+					audioSink
+					);
+
+			// From here on every failure must release the session
+			try {
+				session.setPayloadType(Constants.RTP_PAYLOAD_TYPE);
+
+				// Give up if the device never answers the handshake. Timed on the
+				// control loop, the media loop carries other sessions' audio
+				EventLoop controlLoop = RTPEngine.getDefault().getControlLoop();
+				ScheduledTask timeout = new ScheduledTask() {
+					@Override
+					public void run() {
+						session.fail(listener, new Exception("Connection timed out"));
+					}
+				};
+
+				controlLoop.execute(() -> controlLoop.schedule(timeout, Constants.CONNECT_TIMEOUT_MS * 1000000L));
+
+				session.webSocketConnection = new WebSocketConnectionImpl(rokuAddress,
+						new RokuWebSocketListener() {
+
+					@Override
+					public void onAuthSuccess() {
+						Log.d(TAG, "onAuthSuccess!");
+						session.webSocketConnection.setAudioOutput(hostAddress + ":" + session.getRTPPort());
+					}
+
+					@Override
+					public void onSetAudioOutput() {
+						Log.d(TAG, "onSetAudioOutput!");
+
+						if (session.settled.compareAndSet(false, true)) {
+							controlLoop.execute(() -> controlLoop.cancel(timeout));
+							session.startRTPReceiver();
+							listener.onConnected(session);
+						}
+					}
+
+					@Override
+					public void onAuthFailed() {
+						session.fail(listener, new Exception("Auth failure"));
+					}
+
+					@Override
+					public void onFailure(Throwable error) {
+						session.fail(listener, error);
+					}
+
+					@Override
+					public void onClosed(int code, String reason) {
+						session.fail(listener, new Exception("Connection closed: " + code + " " + reason));
+					}
+				});
+
+				session.webSocketConnection.connect();
+			} catch (RuntimeException e) {
+				session.fail(listener, e);
+			}
 		} catch (IOException e) {
 			listener.onFailure(e);
 		}
 	}
 
+	/**
+	 * Ends a session. Safe to call more than once and from any thread, only the
+	 * first call has an effect.
+	 *
+	 * @param session The session to end, may be null.
+	 */
 	public static void disconnect(PrivateListeningSession session) {
-		if (session != null) {
-			webSocketConnection.disconnect();
-			session.stopRTCPSenderThread();
-			session.stopRTPReceiverThread();
+		if (session != null && session.closed.compareAndSet(false, true)) {
+			if (session.webSocketConnection != null) {
+				session.webSocketConnection.disconnect();
+			}
+
 			session.stopAudioDecoder();
+			// The receiver channel is closed once the BYE has gone out
+			session.stopRTCPSender(session::release);
 		}
 	}
 
@@ -252,62 +375,155 @@ public class PrivateListeningSession {
 		Log.suppressLogs = !isDebugMode;
 	}
 
-	private static void supportsPrivateListening(String rokuAddress, ConnectionListener listener) throws IOException {
+	private static boolean supportsPrivateListening(String rokuAddress, ConnectionListener listener)
+			throws IOException {
 		Device device = QueryRequests.queryDeviceInfo(rokuAddress);
 
 		String supportsPrivateListening = device.getSupportsPrivateListening();
 
 		if (!Boolean.parseBoolean(supportsPrivateListening)) {
 			listener.onFailure(new Exception("Device does not support private listening"));
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Ends the session after connecting failed or the connection to the device
+	 * was lost. The listener is told about a failure while connecting, a session
+	 * that was already handed out is only shut down.
+	 *
+	 * @param listener Listener passed to connect.
+	 * @param error    Cause of the failure.
+	 */
+	private void fail(ConnectionListener listener, Throwable error) {
+		boolean connecting = settled.compareAndSet(false, true);
+
+		if (!closed.get()) {
+			Log.d(TAG, "Session failed: " + error.getMessage());
+		}
+
+		disconnect(this);
+
+		if (connecting) {
+			listener.onFailure(error);
 		}
 	}
 
 	/**
 	 * The only constructor. Requires CNAME and session bandwidth. Initializes the
-	 * SSRC to a randomly generated number.
+	 * SSRC to a randomly generated number. The RTP port and the loopback ports
+	 * used to reach the audio decoder are allocated for this session.
 	 *
 	 * @param MulticastGroupIPAddress Dotted decimal representation of the Multicast
 	 *                                group IP address.
-	 * @param MulticastGroupPort      Port number of the Multcast group.
+	 * @param loopbackIPAddress       Address the audio decoder listens on.
 	 * @param RTCPGroupPort           Port on which the session will receive ( and
 	 *                                send to ) the RTCP packets.
-	 * @param RTPSendFromPort         Local port from which the RTP packets are sent
-	 *                                out (must be different from
-	 *                                MulticastGroupPort).
-	 * @param RTCPSendFromPort        Local port from which the RTCP packets are
-	 *                                sent out (must be different from
-	 *                                RTCPGroupPort).
 	 * @param bandwidth               Bandwidth available to the session.
+	 * @param audioSink               Destination of the audio decoded in process,
+	 *                                or null to forward the packets to ffplay.
+	 * @throws IOException If the session sockets could not be opened.
 	 */
 	private PrivateListeningSession(
 	        String MulticastGroupIPAddress,
             String loopbackIPAddress,
-            int MulticastGroupPort,
             int RTCPGroupPort,
-			int RTCPSendFromPort,
-            double bandwidth
-    ) {
+            double bandwidth,
+            AudioSink audioSink
+    ) throws IOException {
 		this.bandwidth = bandwidth;
-
-		sourceMap = new Hashtable<>();
+		this.clock = defaultClock;
 
 		InetAddress inetAddress = GetInetAddress(MulticastGroupIPAddress);
 		InetAddress loopbackAddress = GetInetAddress(loopbackIPAddress);
 
-		// Create a new RTP Handler thread (but do not start it yet)
-		m_RTPHandler = new RTPThreadHandler(inetAddress, loopbackAddress, MulticastGroupPort);
+		RTPPacketSink packetSink;
 
-		// Create a new RTCP Handler thread (but do not start it yet)
-		// Set the sendto and recvfrom ports
-		m_RTCPHandler = new RTCPThreadHandler(inetAddress, RTCPSendFromPort, RTCPGroupPort);
+		if (audioSink == null) {
+			// Take a running decoder from the pool, it owns its port pair
+			ffplayProcess = DecoderProcessPool.getDefault().acquire();
+			decoderPort = ffplayProcess.getPort();
+			opusDecoder = null;
+
+			try {
+				packetSink = new RTPPacketForwarder(loopbackAddress, 0, decoderPort);
+			} catch (IOException ex) {
+				ffplayProcess.destroy();
+				throw ex;
+			}
+		} else {
+			decoderPort = 0;
+			opusDecoder = new OpusPacketDecoder(Constants.RTP_CLOCK_RATE, Constants.AUDIO_CHANNELS, audioSink);
+			packetSink = opusDecoder;
+		}
 
 		// Initilize session level variables
 		Initialize();
 
+		// All sessions share the engine's event loops, pick one for this session
+		eventLoop = RTPEngine.getDefault().nextLoop();
+
+		// Create a new RTP Receiver (but do not start it yet), this binds
+		// the RTP port
+		try {
+			m_RTPReceiver = new RTPReceiver(this, eventLoop, inetAddress, packetSink);
+		} catch (IOException ex) {
+			packetSink.close();
+			stopAudioDecoder();
+			throw ex;
+		}
+
+		// Create a new RTCP Sender (but do not start it yet)
+		// Set the sendto and recvfrom ports
+		m_RTCPSender = new RTCPSender(this, RTPEngine.getDefault().getControlLoop(), m_RTPReceiver.getJitterBuffer(),
+				inetAddress, getRTPPort(), RTCPGroupPort);
+
 		Log.d(TAG, "SSRC: 0x" + Long.toHexString(SSRC));
 
 	}
 
+	/**
+	 * Creates a session without sockets, receiver, sender or decoder, holding
+	 * only the members table and the statistics. For tests of the packet
+	 * handling.
+	 *
+	 * @param clock Time source of the session.
+	 */
+	PrivateListeningSession(SessionClock clock) {
+		this.bandwidth = 10000;
+		this.clock = clock;
+		this.eventLoop = null;
+		this.decoderPort = 0;
+		this.opusDecoder = null;
+
+		Initialize();
+	}
+
+	/**
+	 * Returns the local port RTP packets are received on.
+	 */
+	public int getRTPPort() {
+		return m_RTPReceiver.getLocalPort();
+	}
+
+	/**
+	 * Returns the local port the audio decoder listens on.
+	 */
+	public int getDecoderPort() {
+		return decoderPort;
+	}
+
+	/**
+	 * Stops receiving and releases the ports reserved for this session. The
+	 * receiver is closed on its media loop, which may be busy with a packet.
+	 */
+	private void release() {
+		stopRTPReceiver();
+		stopAudioDecoder();
+	}
+
 	/**
 	 * Set the Payload type.
 	 */
@@ -318,47 +534,51 @@ public class PrivateListeningSession {
 	/**
 	 * Get the Payload type.
 	 */
-	public synchronized static byte getPayloadType() {
+	public synchronized byte getPayloadType() {
 		return payloadType;
 	}
 
 	/**
-	 * Starts the RTP Receiver thread.
+	 * Starts receiving RTP packets on the session's event loop.
 	 */
-	public synchronized void startRTPReceiverThread() {
-		m_RTPHandler.startRTPReceiverThread();
+	public synchronized void startRTPReceiver() {
+		m_RTPReceiver.start();
 	}
 
 	/**
-	 * Stops the RTP Receiver thread.
+	 * Stops receiving RTP packets.
 	 */
-	public synchronized void stopRTPReceiverThread() {
-		m_RTPHandler.stopRTPReceiverThread();
+	public synchronized void stopRTPReceiver() {
+		m_RTPReceiver.stop();
 	}
 
 	/**
-	 * Stops the RTCP Sender thread
+	 * Stops sending RTCP packets, sending a BYE first if reports were sent.
 	 *
+	 * @param onStopped Run on the event loop once the sender has stopped.
 	 */
-	public synchronized void stopRTCPSenderThread() {
-		m_RTCPHandler.stopRTCPSenderThread();
+	public synchronized void stopRTCPSender(Runnable onStopped) {
+		m_RTCPSender.bye(onStopped);
 	}
 
 	/**
-	 * Starts the audio decoder
-	 *
+	 * Returns the most recent output of the ffplay decoder, empty when decoding
+	 * in process.
 	 */
-	public synchronized void startAudioDecoder() {
-		ShellCommand shellCommand = new ShellCommand();
-		ffplayProcess = shellCommand.execute("");
+	public synchronized String getDecoderOutput() {
+		return ffplayProcess != null ? ffplayProcess.getRecentOutput() : "";
 	}
 
 	/**
-	 * Stop the audio decoder
+	 * Stop the audio decoder, only this session's decoder process is stopped.
+	 * The process is destroyed by the decoder pool's thread, waiting for it to
+	 * exit must not stall the event loop the session is torn down from.
 	 *
 	 */
 	public synchronized void stopAudioDecoder() {
-		ffplayProcess.destroy();
+		if (ffplayProcess != null) {
+			DecoderProcessPool.getDefault().destroy(ffplayProcess);
+		}
 	}
 
 	/**
@@ -371,16 +591,12 @@ public class PrivateListeningSession {
 	 * @return The source corresponding the given SSRC, this source may be extracted
 	 *         from the map or newly created.
 	 */
-	public synchronized static Source GetSource(long keySSRC) {
-		Source s;
-
-		if (sourceMap.containsKey(new Long(keySSRC)))
-			s = (Source) sourceMap.get(new Long(keySSRC));
-		else // source doesn't exist in the map, add it
-		{
-			s = new Source(keySSRC);
-			AddSource(keySSRC, s);
+	public Source GetSource(long keySSRC) {
+		Source s = sourceTable.get(keySSRC);
 
+		if (s == null) {
+			// source doesn't exist in the map, add it
+			s = AddSource(keySSRC, new Source(clock, keySSRC));
 		}
 
 		return s;
@@ -391,9 +607,8 @@ public class PrivateListeningSession {
 	 *
      * @param sourceSSRC The source with this SSRC has to be removed.
      */
-	public synchronized static void RemoveSource(long sourceSSRC) {
-		if (sourceMap.get(sourceSSRC) != null) {
-			sourceMap.remove(sourceSSRC);
+	public void RemoveSource(long sourceSSRC) {
+		if (sourceTable.remove(sourceSSRC) != null) {
 			Log.d(TAG, "Removing Source : " + "SSRC = 0x" + Integer.toHexString((int) sourceSSRC));
 			Log.d(TAG, "No. of members" + GetNumberOfMembers());
 			Log.d(TAG, "No. of senders" + GetNumberOfActiveSenders());
@@ -408,17 +623,10 @@ public class PrivateListeningSession {
 	 * @param MulticastAddress Dotted decimal IP address from which a <b>
 	 *                         InetAddress </b> object will be created and returned.
 	 * @return Desired InetAddress object.
+	 * @throws UnknownHostException If the address could not be resolved.
 	 */
-	public synchronized static InetAddress GetInetAddress(String MulticastAddress) {
-		InetAddress ia = null;
-		try {
-			ia = InetAddress.getByName(MulticastAddress);
-		} catch (Exception ex) {
-			System.err.println(ex.getMessage());
-			System.exit(1);
-		}
-
-		return (ia);
+	public synchronized static InetAddress GetInetAddress(String MulticastAddress) throws UnknownHostException {
+		return InetAddress.getByName(MulticastAddress);
 	}
 
 	/**
@@ -426,9 +634,8 @@ public class PrivateListeningSession {
 	 *
 	 * @return Total number of members.
 	 */
-	public static int GetNumberOfMembers() {
-		// Go through the map and return the total number of sources.
-		return sourceMap.size();
+	public int GetNumberOfMembers() {
+		return sourceTable.size();
 	}
 
 	/**
@@ -436,32 +643,24 @@ public class PrivateListeningSession {
 	 *
 	 * @return Number of senders.
 	 */
-	public static int GetNumberOfActiveSenders() {
-		// Hasttable
-		Enumeration<Source> SourceCollection = GetSources();
-		int i = 0;
-		while (SourceCollection.hasMoreElements()) {
-			Source s = SourceCollection.nextElement();
-
-			if (s.isActiveSender()) {
-				i++;
-			}
-		}
-		return (i);
+	public int GetNumberOfActiveSenders() {
+		// Kept up to date by the sources as they change state
+		return sourceTable.getActiveSenders();
 	}
 
 	/**
-	 * Calculates the next interval, sets the T and Td class level static variables.
+	 * Calculates the next interval, sets the T and Td session variables.
 	 *
 	 * Method to calculate the RTCP transmission interval T. from Section A7
 	 * Computing the RTCP Transmission Interval ( with minor modifications )
 	 *
      */
-	public static synchronized void CalculateInterval() {
+	public synchronized void CalculateInterval() {
 		// Update T and Td ( same as rtcp_interval() function in rfc.
 
 		int members = GetNumberOfMembers();
 		int senders = GetNumberOfActiveSenders();
+		double bw = rtcp_bw;
 
 		/*
 		 * Minimum average time between RTCP packets from this site (in seconds). This
@@ -501,10 +700,10 @@ public class PrivateListeningSession {
 
 		if (senders > 0 && senders < members * RTCP_SENDER_BW_FRACTION) {
 			if (GetMySource().isActiveSender()) {
-				rtcp_bw *= RTCP_SENDER_BW_FRACTION;
+				bw *= RTCP_SENDER_BW_FRACTION;
 				n = senders;
 			} else {
-				rtcp_bw *= RTCP_RCVR_BW_FRACTION;
+				bw *= RTCP_RCVR_BW_FRACTION;
 				n -= senders;
 			}
 		}
@@ -517,7 +716,7 @@ public class PrivateListeningSession {
 		 * time interval we send one report so this time is also our average time
 		 * between reports.
 		 */
-		t = avg_rtcp_size * n / rtcp_bw;
+		t = avg_rtcp_size * n / bw;
 		if (t < rtcp_min_time)
 			t = rtcp_min_time;
 		/*
@@ -527,8 +726,8 @@ public class PrivateListeningSession {
 		 */
 		double noise = (rnd.nextDouble() + 0.5);
 
-		PrivateListeningSession.Td = t;
-		PrivateListeningSession.T = t * noise;
+		this.Td = t;
+		this.T = t * noise;
     }
 
 	/**
@@ -552,7 +751,7 @@ public class PrivateListeningSession {
 		tn = T;
 
 		// Add self as a source object into the SSRC table maintained by the session
-		PrivateListeningSession.AddSource(PrivateListeningSession.SSRC, new Source(PrivateListeningSession.SSRC));
+		AddSource(SSRC, new Source(clock, SSRC));
 
     }
 
@@ -561,47 +760,172 @@ public class PrivateListeningSession {
 	 *
 	 * @return My source object.
 	 */
-	public static synchronized Source GetMySource() {
-		return sourceMap.get(SSRC);
-
+	public Source GetMySource() {
+		return sourceTable.get(SSRC);
 	}
 
 	/**
-	 * Adds an SSRC into the table, if SSRC Exists, error code -1 is returned.
+	 * Adds an SSRC into the table, if the SSRC exists the source already in the
+	 * table is kept.
 	 *
 	 * @param newSSRC SSRC of the source being added.
 	 * @param src     Source object of the source being added.
+	 * @return The source stored in the table for the SSRC.
      */
+	public Source AddSource(long newSSRC, Source src) {
+		Source s = sourceTable.putIfAbsent(src);
 
-	public static void AddSource(long newSSRC, Source src) {
-
-		if (sourceMap.containsKey(newSSRC)) {
-        } else {
-			sourceMap.put(newSSRC, src);
+		if (s == src) {
 			Log.d(TAG, "Adding Source : " + "SSRC = 0x" + Integer.toHexString((int) newSSRC));
 			Log.d(TAG, "No. of members" + GetNumberOfMembers());
 			Log.d(TAG, "No. of senders" + GetNumberOfActiveSenders());
-
 		}
+
+		return s;
     }
 
     /**
-	 * Return an iterable enumeration of all sources contained in the Map.
+	 * Returns all sources contained in the table. The array is a snapshot that is
+	 * replaced, never changed, when members join or leave, so it must not be
+	 * modified.
 	 *
-	 * @return Enumeration of all the sources (members).
+	 * @return All the sources (members).
 	 */
-	public static synchronized Enumeration<Source> GetSources() {
-		return sourceMap.elements();
+	public Source[] GetSources() {
+		return sourceTable.members();
 	}
 
 	/**
-	 * Returns current time from the Date().getTime() function.
+	 * Returns the current time from the monotonic session clock.
 	 *
-	 * @return The current time.
+	 * @return The current time in milliseconds.
 	 */
-	public static long CurrentTime() {
-		tc = (new Date()).getTime();
-		return (long) tc;
+	public long CurrentTime() {
+		return clock.nanoTime() / 1000000;
+	}
+
+	/**
+	 * Returns the time source of the session.
+	 *
+	 * @return The session clock.
+	 */
+	public SessionClock getClock() {
+		return clock;
+	}
+
+	/**
+	 * Records a round trip time measured from a reception report, and takes half
+	 * of it as the one way delay estimate.
+	 *
+	 * @param roundTripMicros Round trip time in microseconds.
+	 */
+	public void addRoundTripTime(long roundTripMicros) {
+		roundTripTime.add(roundTripMicros);
+		oneWayDelay = roundTripMicros / 2;
+	}
+
+	/**
+	 * Returns the round trip times to the device, in microseconds.
+	 */
+	public RollingPercentiles getRoundTripTime() {
+		return roundTripTime;
+	}
+
+	/**
+	 * Returns the estimated latencies from capture to playout, in microseconds.
+	 */
+	public RollingPercentiles getEndToEndLatency() {
+		return endToEndLatency;
+	}
+
+	/**
+	 * Returns the output latency of the audio decoder in microseconds.
+	 */
+	public long getDecoderLatency() {
+		if (opusDecoder != null) {
+			return opusDecoder.getLatency();
+		}
+
+		return Constants.DECODER_LATENCY_MS * 1000L;
+	}
+
+	/**
+	 * Returns the one way delay estimate in microseconds, 0 until a round trip
+	 * time was measured.
+	 */
+	public long getOneWayDelay() {
+		return oneWayDelay;
+	}
+
+	/**
+	 * Replaces the time source of sessions created from now on, e.g. with a
+	 * virtual clock for tests and benchmarks. The shared engine times its
+	 * scheduled tasks by the same clock if it has not been started yet.
+	 *
+	 * @param sessionClock The clock to use.
+	 */
+	public static void setClock(SessionClock sessionClock) {
+		defaultClock = sessionClock;
+		RTPEngine.setClock(sessionClock);
+	}
+
+	/**
+	 * Handles a BYE received for a source. The source leaves the members table
+	 * at once, so the reports and the interval no longer account for it.
+	 *
+	 * @param sourceSSRC SSRC of the leaving source.
+	 */
+	public synchronized void HandleBye(long sourceSSRC) {
+		Source source = sourceTable.get(sourceSSRC);
+
+		if (sourceSSRC == SSRC || source == null) {
+			return;
+		}
+
+		boolean wasSender = source.isActiveSender();
+
+		RemoveSource(sourceSSRC);
+		pmembers = GetNumberOfMembers();
+
+		if (wasSender) {
+			Log.d(TAG, "End of stream from SSRC = 0x" + Long.toHexString(sourceSSRC));
+		}
+	}
+
+	/**
+	 * Expires silent sources as described in RFC 3550 6.3.5. A sender that has
+	 * not sent RTP for two intervals T is no longer counted as a sender, a member
+	 * not heard from for five deterministic intervals Td is removed. Called once
+	 * per reporting interval, so the member and sender counts the interval is
+	 * computed from stay accurate when the device changes its SSRC.
+	 */
+	public void TimeoutSources() {
+		tc = CurrentTime();
+
+		double senderTimeout = tc - SENDER_TIMEOUT_INTERVALS * T * 1000;
+		double memberTimeout = tc - MEMBER_TIMEOUT_INTERVALS * Td * 1000;
+		boolean removed = false;
+
+		for (Source s : GetSources()) {
+			if (s.getSsrc() == SSRC) {
+				continue;
+			}
+
+			double lastHeard = Math.max(s.getTimeOfLastRTPArrival(), s.getTimeOfLastRTCPArrival());
+
+			if (lastHeard < memberTimeout) {
+				Log.d(TAG, "Source timed out : SSRC = 0x" + Long.toHexString(s.getSsrc()));
+				RemoveSource(s.getSsrc());
+				removed = true;
+			} else if (s.isActiveSender() && s.getTimeOfLastRTPArrival() < senderTimeout) {
+				Log.d(TAG, "Sender went silent : SSRC = 0x" + Long.toHexString(s.getSsrc()));
+				s.setActiveSender(false);
+			}
+		}
+
+		if (removed) {
+			pmembers = GetNumberOfMembers();
+		}
 	}
 
 	/**
@@ -609,12 +933,8 @@ public class PrivateListeningSession {
 	 * number of sources removed.
 	 *
      */
-	public static synchronized void RemoveAllSources() {
-		Enumeration<Source> SourceCollection = GetSources();
-
-        while (SourceCollection.hasMoreElements()) {
-			Source s = SourceCollection.nextElement();
-
+	public synchronized void RemoveAllSources() {
+		for (Source s : GetSources()) {
 			if (s.getSsrc() != SSRC) {
 				RemoveSource(s.getSsrc());
             }
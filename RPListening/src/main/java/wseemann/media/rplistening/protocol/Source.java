@@ -19,16 +19,66 @@
 
 package wseemann.media.rplistening.protocol;
 
+import wseemann.media.rplistening.protocol.utils.SessionClock;
+import wseemann.media.rplistening.utils.Constants;
+
 /**
  * This class encapsulates all the per source state information. Every source
  * keeps track of all the other sources in the multicast group, from which it
  * has received a RTP or RTCP Packet. It is necessry to keep track of per state
  * source information in order to provide effective reception quality feedback
  * to all the sources that are in the multicast group.
+ *
+ * The state is written on the media loop as packets arrive and read on the
+ * control loop when reports are assembled, so the fields the reports read are
+ * volatile.
  */
 
 public class Source {
 
+	/**
+	 * Result of {@link #updateSeq}: the packet belongs to the stream
+	 */
+	public static final int SEQ_VALID = 0;
+
+	/**
+	 * Result of {@link #updateSeq}: the packet jumped far from the stream and is
+	 * held back until the next packet confirms the jump
+	 */
+	public static final int SEQ_INVALID = 1;
+
+	/**
+	 * Result of {@link #updateSeq}: the sender restarted the stream, the
+	 * sequence state was reinitialized from the packet
+	 */
+	public static final int SEQ_RESTART = 2;
+
+	/**
+	 * Result of {@link #updateSeq}: the packet continues the stream, but its
+	 * timestamp no longer follows the arrival time, playout must be re-primed.
+	 * The sequence state and the reception statistics are kept.
+	 */
+	public static final int SEQ_DISCONTINUITY = 3;
+
+	private static final int RTP_SEQ_MOD = 1 << 16;
+
+	/**
+	 * Largest forward sequence jump accepted as packet loss (RFC 3550 A.1)
+	 */
+	private static final int MAX_DROPOUT = 3000;
+
+	/**
+	 * Largest backward sequence jump accepted as reordering (RFC 3550 A.1)
+	 */
+	private static final int MAX_MISORDER = 100;
+
+	/**
+	 * Largest change in transit time, in timestamp units, still taken for
+	 * network delay rather than a timestamp discontinuity
+	 */
+	private static final int MAX_TRANSIT_JUMP = Constants.RTP_CLOCK_RATE * Constants.STREAM_RESTART_TRANSIT_JUMP_MS
+			/ 1000;
+
 	/**
 	 * source SSRC uint 32.
 	 */
@@ -54,49 +104,80 @@ public class Source {
 	private long lastSeq; // unsigned 32 bits
 
 	/**
-	 * Interarrival jitter.
+	 * Interarrival jitter, in timestamp units.
 	 */
-	private long jitter; // unsigned 32 bits
+	private volatile long jitter; // unsigned 32 bits
+
+	/**
+	 * Running interarrival jitter estimate, in timestamp units (RFC 3550 A.8).
+	 */
+	private double jitterEstimate;
+
+	/**
+	 * Relative transit time of the previous RTP packet, in timestamp units.
+	 */
+	private int transit;
+
+	/**
+	 * True once the transit time of a first packet is known.
+	 */
+	private boolean hasTransit;
 
 	/**
 	 * Last SR Packet from this source.
 	 */
-	private long lst; // unsigned 32 bits
+	private volatile long lst; // unsigned 32 bits
 
 	/**
-	 * Delay since last SR packet.
+	 * Delay since last SR packet, in units of 1/65536 seconds.
 	 */
 	private double dlsr;
 
 	/**
 	 * Is this source and ActiveSender.
 	 */
-	private boolean activeSender;
+	private volatile boolean activeSender;
 
 	/**
 	 * Time the last RTCP Packet was received from this source.
 	 */
-	private double timeOfLastRTCPArrival;
+	private volatile double timeOfLastRTCPArrival;
 
 	/**
 	 * Time the last RTP Packet was received from this source.
 	 */
-	private double timeOfLastRTPArrival;
+	private volatile double timeOfLastRTPArrival;
 
 	/**
 	 * Time the last Sender Report RTCP Packet was received from this source.
 	 */
-	private double timeOfLastSRRcvd;
+	private volatile double timeOfLastSRRcvd;
+
+	/**
+	 * NTP timestamp of the last Sender Report, 32.32 fixed point seconds.
+	 */
+	private long srNtpTimestamp;
+
+	/**
+	 * RTP timestamp of the last Sender Report, the same instant as
+	 * srNtpTimestamp.
+	 */
+	private long srRtpTimestamp;
+
+	/**
+	 * Local arrival time of the last Sender Report, in nanoseconds.
+	 */
+	private long srArrivalTime;
 
 	/**
 	 * Total Number of RTP Packets Received from this source
 	 */
-	private int noOfRTPPacketsRcvd;
+	private volatile int noOfRTPPacketsRcvd;
 
 	/**
 	 * Sequence Number of the first RTP packet received from this source
 	 */
-	private long baseSeq;
+	private volatile long baseSeq;
 
 	/**
 	 * Number of RTP Packets Expected from this source
@@ -106,39 +187,57 @@ public class Source {
 	/**
 	 * No of RTP Packets expected last time a Reception Report was sent
 	 */
-	private long expectedPrior;
+	private volatile long expectedPrior;
 
 	/**
 	 * No of RTP Packets received last time a Reception Report was sent
 	 */
-	private long receivedPrior;
+	private volatile long receivedPrior;
 
 	/**
 	 * Highest Sequence number received from this source
 	 */
-	private long maxSeq;
+	private volatile long maxSeq;
 
 	/**
 	 * Keep track of the wrapping around of RTP sequence numbers, since RTP Seq No.
 	 * are only 16 bits
 	 */
-	private long cycles;
+	private volatile long cycles;
+
+	/**
+	 * Extended highest sequence number, cycles and maxSeq published in a single
+	 * write so the control loop never sees one updated without the other
+	 */
+	private volatile long extendedMax;
+
+	/**
+	 * Sequence number a packet after a large jump must have to confirm the jump,
+	 * out of range while no jump is pending
+	 */
+	private int badSeq = RTP_SEQ_MOD + 1;
+
+	/**
+	 * Table this source is a member of, null once it left.
+	 */
+	private SourceTable memberOf;
 
 	/**
-	 * Since Packets lost is a 24 bit number, it should be clamped at WRAPMAX =
-	 * 0xFFFFFFFF
+	 * Clock of the session this source belongs to.
 	 */
-	private long WRAPMAX = 0xFFFFFFFF;
+	private final SessionClock clock;
 	
 	/**
 	 * Constructor requires an SSRC for it to be a valid source. The constructor
 	 * initializes all the source class members to a default value
 	 *
+	 * @param clock      Clock of the session the source belongs to
 	 * @param sourceSSRC SSRC of the new source
 	 */
 
-	Source(long sourceSSRC) {
-		long time = PrivateListeningSession.CurrentTime();
+	Source(SessionClock clock, long sourceSSRC) {
+		this.clock = clock;
+		long time = clock.nanoTime() / 1000000;
 		setSsrc(sourceSSRC);
 		setFraction(0);
 		setLost(0);
@@ -194,6 +293,16 @@ public class Source {
 
 	public void setJitter(long jitter) {
 		this.jitter = jitter;
+		this.jitterEstimate = jitter;
+	}
+
+	/**
+	 * Returns the interarrival jitter in milliseconds.
+	 *
+	 * @return Jitter
+	 */
+	public double getJitterMillis() {
+		return jitter * 1000.0 / Constants.RTP_CLOCK_RATE;
 	}
 
 	public long getLst() {
@@ -217,7 +326,44 @@ public class Source {
 	}
 
 	public void setActiveSender(boolean activeSender) {
+		// Called for every packet, only an actual change takes the lock
+		if (this.activeSender != activeSender) {
+			changeActiveSender(activeSender);
+		}
+	}
+
+	private synchronized void changeActiveSender(boolean activeSender) {
+		if (this.activeSender == activeSender) {
+			return;
+		}
+
 		this.activeSender = activeSender;
+
+		if (memberOf != null) {
+			memberOf.onActiveSenderChanged(activeSender);
+		}
+	}
+
+	/**
+	 * Sets the table the source is a member of, keeping its active sender count
+	 * right as the source joins or leaves.
+	 *
+	 * @param table The table, or null when the source leaves.
+	 */
+	synchronized void setMemberOf(SourceTable table) {
+		if (activeSender && memberOf != null) {
+			memberOf.onActiveSenderChanged(false);
+		}
+
+		memberOf = table;
+
+		if (activeSender && memberOf != null) {
+			memberOf.onActiveSenderChanged(true);
+		}
+	}
+
+	public double getTimeOfLastRTCPArrival() {
+		return timeOfLastRTCPArrival;
 	}
 
 	public void setTimeOfLastRTCPArrival(double timeOfLastRTCPArrival) {
@@ -240,6 +386,51 @@ public class Source {
 		this.timeOfLastSRRcvd = timeOfLastSRRcvd;
 	}
 
+	/**
+	 * Records the NTP to RTP timestamp mapping of a Sender Report.
+	 *
+	 * @param ntpTimestamp NTP timestamp of the report
+	 * @param rtpTimestamp RTP timestamp of the report
+	 * @param arrivalTime  Local arrival time of the report, in nanoseconds
+	 */
+	public void setSenderReport(long ntpTimestamp, long rtpTimestamp, long arrivalTime) {
+		this.srNtpTimestamp = ntpTimestamp;
+		this.srRtpTimestamp = rtpTimestamp;
+		this.srArrivalTime = arrivalTime;
+	}
+
+	/**
+	 * Returns true once a Sender Report has been received from this source.
+	 */
+	public boolean hasSenderReport() {
+		return srNtpTimestamp != 0;
+	}
+
+	public long getSrNtpTimestamp() {
+		return srNtpTimestamp;
+	}
+
+	public long getSrRtpTimestamp() {
+		return srRtpTimestamp;
+	}
+
+	public long getSrArrivalTime() {
+		return srArrivalTime;
+	}
+
+	/**
+	 * Maps an RTP timestamp of this source onto its NTP wallclock, using the
+	 * last Sender Report.
+	 *
+	 * @param rtpTimestamp RTP timestamp
+	 * @return NTP timestamp, 32.32 fixed point seconds
+	 */
+	public long rtpToNtp(long rtpTimestamp) {
+		// Timestamps wrap at 32 bits, only the difference matters
+		long delta = (int) (rtpTimestamp - srRtpTimestamp);
+		return srNtpTimestamp + (delta << 32) / Constants.RTP_CLOCK_RATE;
+	}
+
 	public int getNoOfRTPPacketsRcvd() {
 		return noOfRTPPacketsRcvd;
 	}
@@ -286,6 +477,7 @@ public class Source {
 
 	public void setMaxSeq(long maxSeq) {
 		this.maxSeq = maxSeq;
+		this.extendedMax = cycles + maxSeq;
 	}
 
 	public long getCycles() {
@@ -294,10 +486,7 @@ public class Source {
 
 	public void setCycles(long cycles) {
 		this.cycles = cycles;
-	}
-
-	public long getWRAPMAX() {
-		return WRAPMAX;
+		this.extendedMax = cycles + maxSeq;
 	}
 
 	/**
@@ -308,30 +497,123 @@ public class Source {
 	 *
 	 */
 	public long getExtendedMax() {
-		return (getCycles() + getMaxSeq());
+		return extendedMax;
+	}
+
+	/**
+	 * Updates the sequence state from a received packet as described in RFC 3550
+	 * A.1, counting a cycle each time the 16 bit sequence number wraps. A jump
+	 * too large to be loss or reordering is accepted only once the next packet
+	 * follows it; the sender then restarted the stream and the statistics start
+	 * over from the packet. A jump in transit time no network delay can explain,
+	 * a stall or a timestamp jump, is only reported as a discontinuity: the
+	 * stream is the same, so the cumulative loss and the extended highest
+	 * sequence number in our reports must not go backwards (RFC 3550 6.4.1).
+	 *
+	 * @param seq         Sequence number of the packet
+	 * @param timestamp   RTP timestamp of the packet
+	 * @param arrivalTime Arrival time of the packet from a monotonic clock, in
+	 *                    nanoseconds
+	 * @return {@link #SEQ_VALID}, {@link #SEQ_INVALID}, {@link #SEQ_RESTART} or
+	 *         {@link #SEQ_DISCONTINUITY}
+	 */
+	public int updateSeq(int seq, long timestamp, long arrivalTime) {
+		if (getNoOfRTPPacketsRcvd() == 0) {
+			initSeq(seq);
+			return SEQ_VALID;
+		}
+
+		int udelta = (seq - (int) getMaxSeq()) & 0xFFFF;
+
+		if (udelta < MAX_DROPOUT) {
+			boolean discontinuity = hasTransit
+					&& Math.abs(transit(timestamp, arrivalTime) - transit) > MAX_TRANSIT_JUMP;
+
+			// In order, with a permissible gap
+			if (seq < maxSeq) {
+				// Sequence number wrapped, count another 64K cycle
+				cycles += RTP_SEQ_MOD;
+			}
+
+			maxSeq = seq;
+			extendedMax = cycles + seq;
+
+			if (discontinuity) {
+				// Take a new transit reference, the jump is not jitter. The
+				// Sender Report mapping may no longer hold until the next report
+				hasTransit = false;
+				srNtpTimestamp = 0;
+				return SEQ_DISCONTINUITY;
+			}
+		} else if (udelta <= RTP_SEQ_MOD - MAX_MISORDER) {
+			if (seq == badSeq) {
+				// Two sequential packets, the sender restarted without telling us
+				initSeq(seq);
+				return SEQ_RESTART;
+			}
+
+			badSeq = (seq + 1) & 0xFFFF;
+			return SEQ_INVALID;
+		}
+
+		// Otherwise a duplicate or reordered packet
+		return SEQ_VALID;
+	}
+
+	/**
+	 * Starts the sequence state and the reception statistics over from a packet.
+	 * The jitter estimate is kept, the network did not change. The Sender Report
+	 * mapping refers to the old timestamps and is dropped until the next report.
+	 */
+	private void initSeq(int seq) {
+		setBaseSeq(seq);
+		setCycles(0);
+		setMaxSeq(seq);
+		setNoOfRTPPacketsRcvd(0);
+		setExpectedPrior(0);
+		setReceivedPrior(0);
+		badSeq = RTP_SEQ_MOD + 1;
+		hasTransit = false;
+		srNtpTimestamp = 0;
 	}
 
 	/**
-	 * This safe sequence update function will try to determine if seq has wrapped
-	 * over resulting in a new cycle. It sets the cycle -- source level variable
-	 * which keeps track of wraparounds.
+	 * Returns the relative transit time of a packet in timestamp units. Transit
+	 * times wrap with the 32 bit timestamp, only their difference matters.
+	 */
+	private static int transit(long timestamp, long arrivalTime) {
+		long arrival = arrivalTime / 1000000000L * Constants.RTP_CLOCK_RATE
+				+ arrivalTime % 1000000000L * Constants.RTP_CLOCK_RATE / 1000000000L;
+
+		return (int) (arrival - timestamp);
+	}
+
+	/**
+	 * Updates the interarrival jitter estimate from the RTP timestamp of a packet
+	 * and its arrival time, as described in RFC 3550 A.8. The arrival time is
+	 * converted to timestamp units so the transit time difference is in the same
+	 * units as the timestamp.
 	 *
-	 * @param seq Sequence Number
+	 * @param timestamp   RTP timestamp of the packet
+	 * @param arrivalTime Arrival time of the packet from a monotonic clock, in
+	 *                    nanoseconds
 	 *
 	 */
-	public void updateSeq(long seq) {
-		// If the diferrence between max_seq and seq
-		// is more than 1000, then we can assume that
-		// cycle has wrapped around.
-		if (getMaxSeq() == 0)
-			setMaxSeq(seq);
-		else {
-			if (getMaxSeq() - seq > 0.5 * getWRAPMAX())
-				setCycles(getCycles() + getWRAPMAX());
-
-			setMaxSeq(seq);
+	public void updateJitter(long timestamp, long arrivalTime) {
+		int transit = transit(timestamp, arrivalTime);
+
+		if (hasTransit) {
+			int d = transit - this.transit;
+
+			if (d < 0)
+				d = -d;
+
+			jitterEstimate += (1. / 16.) * ((double) d - jitterEstimate);
+			jitter = (long) jitterEstimate;
 		}
 
+		this.transit = transit;
+		hasTransit = true;
 	}
 
 	/**
@@ -354,9 +636,11 @@ public class Source {
 		setExpected(getExtendedMax() - getBaseSeq() + 1);
 		setLost(getExpected() - getNoOfRTPPacketsRcvd());
 
-		// Clamping at 0xffffff
-		if (getLost() > 0xffffff)
-			setLost(0xffffff);
+		// Clamping to a signed 24 bit value, duplicates can make it negative
+		if (getLost() > 0x7fffff)
+			setLost(0x7fffff);
+		else if (getLost() < -0x800000)
+			setLost(-0x800000);
 
 		// Calculate the fraction lost
 		long expected_interval = getExpected() - getExpectedPrior();
@@ -370,10 +654,13 @@ public class Source {
 		if (expected_interval == 0 || lost_interval <= 0)
 			setFraction(0);
 		else
-			setFraction((lost_interval << 8) / expected_interval);
+			setFraction(Math.min(255, (lost_interval << 8) / expected_interval));
 
-		// dlsr - express it in units of 1/65336 seconds
-		setDlsr((getTimeOfLastSRRcvd() - PrivateListeningSession.CurrentTime()) / 65536);
+		// dlsr - express it in units of 1/65536 seconds, zero if no SR was received
+		if (getLst() == 0)
+			setDlsr(0);
+		else
+			setDlsr((clock.nanoTime() / 1000000 - getTimeOfLastSRRcvd()) * 65536 / 1000);
 
 	}
 
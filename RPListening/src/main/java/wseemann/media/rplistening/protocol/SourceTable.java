@@ -0,0 +1,176 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The members of a session keyed by their SSRC. Lookups use open addressing
+ * over a primitive long key array, so the RTP path neither boxes the SSRC nor
+ * takes a lock. Membership changes are rare (a source joins or leaves), they
+ * copy the table under a lock and publish the copy, so readers always see a
+ * consistent table. The member and active sender counts are kept up to date
+ * as sources join, leave or change state instead of being recounted.
+ */
+final class SourceTable {
+
+	/**
+	 * An immutable snapshot of the members
+	 */
+	private static final class Table {
+		final long[] keys;
+		final Source[] slots;
+
+		/**
+		 * The members without gaps, for iteration
+		 */
+		final Source[] members;
+
+		Table(Source[] members) {
+			// Keep the load factor at or below one half
+			int capacity = Integer.highestOneBit(Math.max(8, members.length * 4) - 1) << 1;
+
+			this.keys = new long[capacity];
+			this.slots = new Source[capacity];
+			this.members = members;
+
+			for (Source s : members) {
+				int i = index(s.getSsrc(), capacity - 1);
+
+				while (slots[i] != null) {
+					i = (i + 1) & (capacity - 1);
+				}
+
+				keys[i] = s.getSsrc();
+				slots[i] = s;
+			}
+		}
+	}
+
+	private volatile Table table = new Table(new Source[0]);
+
+	private final AtomicInteger activeSenders = new AtomicInteger();
+
+	/**
+	 * Looks up a source without locking.
+	 *
+	 * @param ssrc SSRC of the source.
+	 * @return The source, or null if it is not a member.
+	 */
+	Source get(long ssrc) {
+		Table t = table;
+		int mask = t.keys.length - 1;
+		int i = index(ssrc, mask);
+		Source s;
+
+		while ((s = t.slots[i]) != null) {
+			if (t.keys[i] == ssrc) {
+				return s;
+			}
+
+			i = (i + 1) & mask;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Adds a source unless one with the same SSRC is already a member.
+	 *
+	 * @param source The source to add.
+	 * @return The member with the source's SSRC, the given source if it was
+	 *         added.
+	 */
+	synchronized Source putIfAbsent(Source source) {
+		Source existing = get(source.getSsrc());
+
+		if (existing != null) {
+			return existing;
+		}
+
+		Source[] members = table.members;
+		Source[] copy = new Source[members.length + 1];
+		System.arraycopy(members, 0, copy, 0, members.length);
+		copy[members.length] = source;
+
+		source.setMemberOf(this);
+		table = new Table(copy);
+
+		return source;
+	}
+
+	/**
+	 * Removes a source.
+	 *
+	 * @param ssrc SSRC of the source.
+	 * @return The removed source, or null if it was not a member.
+	 */
+	synchronized Source remove(long ssrc) {
+		Source source = get(ssrc);
+
+		if (source == null) {
+			return null;
+		}
+
+		Source[] members = table.members;
+		Source[] copy = new Source[members.length - 1];
+
+		for (int i = 0, j = 0; i < members.length; i++) {
+			if (members[i] != source) {
+				copy[j++] = members[i];
+			}
+		}
+
+		table = new Table(copy);
+		source.setMemberOf(null);
+
+		return source;
+	}
+
+	/**
+	 * Returns the members. The array must not be modified, it is replaced rather
+	 * than changed when the membership changes.
+	 */
+	Source[] members() {
+		return table.members;
+	}
+
+	int size() {
+		return table.members.length;
+	}
+
+	int getActiveSenders() {
+		return activeSenders.get();
+	}
+
+	/**
+	 * Called by a member when its active sender state changes, or when it joins
+	 * or leaves as an active sender.
+	 */
+	void onActiveSenderChanged(boolean activeSender) {
+		activeSenders.addAndGet(activeSender ? 1 : -1);
+	}
+
+	private static int index(long ssrc, int mask) {
+		// Spread the bits, SSRCs are random but cheap to mix anyway
+		long h = ssrc * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & mask;
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.engine;
+
+import java.io.IOException;
+
+/**
+ * Receives readiness events for a channel registered with an {@link EventLoop}.
+ * Handlers run on the event loop thread and must not block.
+ */
+public interface ChannelHandler {
+
+	/**
+	 * Called when the channel has data to read. The handler should read until the
+	 * channel has nothing more to offer.
+	 *
+	 * @throws IOException If reading from the channel failed, the channel is then
+	 *                     deregistered.
+	 */
+	void onReadable() throws IOException;
+}
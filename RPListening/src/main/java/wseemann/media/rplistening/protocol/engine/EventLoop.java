@@ -0,0 +1,285 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.engine;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import wseemann.media.rplistening.protocol.utils.SessionClock;
+import wseemann.media.rplistening.protocol.utils.SystemSessionClock;
+import wseemann.media.rplistening.utils.Log;
+import wseemann.media.rplistening.utils.ThreadAffinity;
+
+/**
+ * A single thread multiplexing the channels and timers of any number of
+ * sessions. Channels are registered with one {@link Selector}, their handlers
+ * and the scheduled tasks all run on the loop thread, so the state they touch
+ * needs no locking as long as it is only used from that thread. Other threads
+ * hand work to the loop with {@link #execute(Runnable)}.
+ */
+public class EventLoop extends Thread {
+
+	private static final String TAG = "EventLoop";
+
+	private final Selector selector;
+
+	/**
+	 * Tasks handed in from other threads
+	 */
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Scheduled tasks
+	 */
+	private final TimerWheel timers;
+
+	/**
+	 * Time source of the timers
+	 */
+	private final SessionClock clock;
+
+	private volatile boolean running = true;
+
+	/**
+	 * Core the loop thread is pinned to, -1 to let it run anywhere
+	 */
+	private int cpu = -1;
+
+	/**
+	 * Creates an event loop timed by the system clock, the thread is not started.
+	 *
+	 * @param name Name of the loop thread.
+	 * @throws IOException If the selector could not be opened.
+	 */
+	public EventLoop(String name) throws IOException {
+		this(name, new SystemSessionClock());
+	}
+
+	/**
+	 * Creates an event loop, the thread is not started.
+	 *
+	 * @param name  Name of the loop thread.
+	 * @param clock Time source of the scheduled tasks.
+	 * @throws IOException If the selector could not be opened.
+	 */
+	public EventLoop(String name, SessionClock clock) throws IOException {
+		super(name);
+		setDaemon(true);
+		this.clock = clock;
+		this.timers = new TimerWheel(clock.nanoTime());
+		selector = Selector.open();
+	}
+
+	/**
+	 * Pins the loop thread to a core once it starts. Must be called before the
+	 * loop is started.
+	 *
+	 * @param cpu Index of the core, -1 to let the thread run anywhere.
+	 */
+	public void setAffinity(int cpu) {
+		this.cpu = cpu;
+	}
+
+	/**
+	 * Returns true if the calling thread is the loop thread.
+	 */
+	public boolean inEventLoop() {
+		return Thread.currentThread() == this;
+	}
+
+	/**
+	 * Runs a task on the loop thread.
+	 *
+	 * @param task The task to run.
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+		// The loop may be parked waiting for a sub millisecond timer
+		LockSupport.unpark(this);
+	}
+
+	/**
+	 * Registers a channel for read events. The channel is switched to non
+	 * blocking mode.
+	 *
+	 * @param channel The channel to watch.
+	 * @param handler Called on the loop thread whenever the channel is readable.
+	 */
+	public void register(SelectableChannel channel, ChannelHandler handler) {
+		execute(() -> {
+			try {
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, handler);
+			} catch (IOException ex) {
+				Log.d(TAG, ex.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Schedules a task, replacing any earlier schedule of the same task. Must be
+	 * called on the loop thread. Tasks fire with sub millisecond precision.
+	 *
+	 * @param task  The task to run.
+	 * @param delay Delay in nanoseconds from now.
+	 */
+	public void schedule(ScheduledTask task, long delay) {
+		if (task.scheduled) {
+			timers.remove(task);
+		}
+
+		task.deadline = clock.nanoTime() + Math.max(0, delay);
+		task.scheduled = true;
+		timers.add(task);
+	}
+
+	/**
+	 * Cancels a scheduled task. Must be called on the loop thread.
+	 *
+	 * @param task The task to cancel.
+	 */
+	public void cancel(ScheduledTask task) {
+		if (task.scheduled) {
+			timers.remove(task);
+			task.scheduled = false;
+		}
+	}
+
+	/**
+	 * Stops the loop and closes its selector.
+	 */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		Log.d(TAG, getName() + " started");
+
+		if (cpu >= 0) {
+			ThreadAffinity.pinCurrentThread(cpu);
+		}
+
+		while (running) {
+			try {
+				select();
+				processSelectedKeys();
+				runTasks();
+				runTimers();
+			} catch (IOException ex) {
+				Log.d(TAG, ex.getMessage());
+			}
+		}
+
+		try {
+			selector.close();
+		} catch (IOException ex) {
+			Log.d(TAG, ex.getMessage());
+		}
+	}
+
+	private void select() throws IOException {
+		if (!tasks.isEmpty()) {
+			selector.selectNow();
+			return;
+		}
+
+		if (timers.isEmpty()) {
+			selector.select();
+			return;
+		}
+
+		long delay = timers.nextDeadline() - clock.nanoTime();
+
+		if (delay <= 0) {
+			selector.selectNow();
+		} else if (delay < 1000000) {
+			// The selector only waits in whole milliseconds, park for the rest
+			LockSupport.parkNanos(this, delay);
+			selector.selectNow();
+		} else {
+			// Round down, the remainder is parked on the next pass
+			selector.select(delay / 1000000);
+		}
+	}
+
+	private void processSelectedKeys() {
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+
+			if (!key.isValid()) {
+				continue;
+			}
+
+			try {
+				((ChannelHandler) key.attachment()).onReadable();
+			} catch (IOException ex) {
+				Log.d(TAG, ex.getMessage());
+				key.cancel();
+			} catch (RuntimeException ex) {
+				// Only this channel's packet is lost, the other sessions on the
+				// loop and the channel itself carry on
+				Log.e(TAG, getName() + " channel handler failed", ex);
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+
+		while ((task = tasks.poll()) != null) {
+			runSafely(task);
+		}
+	}
+
+	/**
+	 * Runs the scheduled tasks that are due. Package private so tests can drive
+	 * the timers from a fake clock without starting the loop.
+	 */
+	void runTimers() {
+		long now = clock.nanoTime();
+		ScheduledTask task;
+
+		while ((task = timers.poll(now)) != null) {
+			task.scheduled = false;
+			runSafely(task);
+		}
+	}
+
+	private void runSafely(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException ex) {
+			// A failing session must not take down the others on this loop
+			Log.e(TAG, getName() + " task failed", ex);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.engine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import wseemann.media.rplistening.protocol.utils.SessionClock;
+import wseemann.media.rplistening.protocol.utils.SystemSessionClock;
+import wseemann.media.rplistening.utils.Constants;
+
+/**
+ * A small pool of {@link EventLoop}s shared by all sessions of the process.
+ * Each session is pinned to one loop, loops are handed out round robin, so
+ * the number of threads follows the number of cores rather than the number of
+ * sessions. These media loops carry the audio path only, from the RTP socket
+ * through the jitter buffer to the decoder; they run at the highest priority
+ * and can be pinned to cores. The RTCP reporting of all sessions runs on a
+ * separate control loop at normal priority, so it never delays a packet.
+ */
+public class RTPEngine {
+
+	/**
+	 * Upper bound of the loop count, a handful of threads is plenty for audio
+	 */
+	private static final int MAX_LOOPS = 4;
+
+	private static RTPEngine instance;
+
+	/**
+	 * Time source of the shared engine's loops
+	 */
+	private static SessionClock defaultClock = new SystemSessionClock();
+
+	private final EventLoop[] loops;
+
+	private final EventLoop controlLoop;
+
+	private int next;
+
+	/**
+	 * Creates and starts an engine.
+	 *
+	 * @param loopCount Number of event loops.
+	 * @param clock     Time source of the loops' scheduled tasks.
+	 * @throws IOException If a selector could not be opened.
+	 */
+	public RTPEngine(int loopCount, SessionClock clock) throws IOException {
+		loops = new EventLoop[loopCount];
+
+		int[] cpus = Constants.MEDIA_THREAD_CPUS;
+
+		for (int i = 0; i < loopCount; i++) {
+			loops[i] = new EventLoop("RTPMedia-" + i, clock);
+			loops[i].setPriority(Thread.MAX_PRIORITY);
+
+			if (cpus.length > 0) {
+				loops[i].setAffinity(cpus[i % cpus.length]);
+			}
+
+			loops[i].start();
+		}
+
+		controlLoop = new EventLoop("RTPControl", clock);
+		controlLoop.start();
+	}
+
+	/**
+	 * Returns the engine shared by all sessions, creating it on first use.
+	 *
+	 * @return The shared engine.
+	 */
+	public static synchronized RTPEngine getDefault() {
+		if (instance == null) {
+			int loopCount = Math.min(MAX_LOOPS, Runtime.getRuntime().availableProcessors());
+
+			try {
+				instance = new RTPEngine(loopCount, defaultClock);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Sets the time source of the shared engine. Only takes effect if called
+	 * before the engine is first used.
+	 *
+	 * @param clock The clock to use.
+	 */
+	public static synchronized void setClock(SessionClock clock) {
+		defaultClock = clock;
+	}
+
+	/**
+	 * Returns the loop the next session should run on.
+	 *
+	 * @return An event loop.
+	 */
+	public synchronized EventLoop nextLoop() {
+		EventLoop loop = loops[next];
+		next = (next + 1) % loops.length;
+		return loop;
+	}
+
+	/**
+	 * Returns the loop the RTCP reporting of all sessions runs on.
+	 *
+	 * @return The control loop.
+	 */
+	public EventLoop getControlLoop() {
+		return controlLoop;
+	}
+
+	/**
+	 * Stops all event loops.
+	 */
+	public void shutdown() {
+		for (EventLoop loop : loops) {
+			loop.shutdown();
+		}
+
+		controlLoop.shutdown();
+	}
+}
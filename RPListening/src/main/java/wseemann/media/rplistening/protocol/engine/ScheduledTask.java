@@ -0,0 +1,56 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.engine;
+
+/**
+ * A task run by an {@link EventLoop} once its deadline has passed. A task can be
+ * scheduled again from its own {@link #run()} method and rescheduled before it
+ * fires, so a single instance can drive a periodic timer without allocating.
+ */
+public abstract class ScheduledTask implements Runnable {
+
+	/**
+	 * Time the task is due, on the event loop clock
+	 */
+	long deadline;
+
+	/**
+	 * True while the task is queued in an event loop
+	 */
+	boolean scheduled;
+
+	/**
+	 * Links to the neighbours in the timer wheel bucket
+	 */
+	ScheduledTask next;
+	ScheduledTask prev;
+
+	/**
+	 * Index of the timer wheel bucket the task is linked into
+	 */
+	int bucket;
+
+	/**
+	 * Returns true if the task is waiting to be run.
+	 */
+	public boolean isScheduled() {
+		return scheduled;
+	}
+}
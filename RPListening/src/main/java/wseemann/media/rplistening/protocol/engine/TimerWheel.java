@@ -0,0 +1,183 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.engine;
+
+/**
+ * Hashed timer wheel holding the scheduled tasks of an {@link EventLoop}. Time
+ * is cut into ticks of about a millisecond and each task is linked into the
+ * bucket of the tick it is due in, so scheduling and cancelling are constant
+ * time and no node is allocated. Tasks due more than one rotation ahead share
+ * a bucket with nearer ones and are skipped until their deadline comes round.
+ * Deadlines keep their full nanosecond value, a task is only handed out once
+ * its exact deadline has passed.
+ *
+ * The wheel is not thread safe, it is only used from the loop thread.
+ */
+final class TimerWheel {
+
+	/**
+	 * Tick length as a power of two of nanoseconds, about 1.05 ms
+	 */
+	private static final int TICK_SHIFT = 20;
+
+	/**
+	 * Number of buckets, must be a power of two
+	 */
+	private static final int WHEEL_SIZE = 512;
+
+	private static final int MASK = WHEEL_SIZE - 1;
+
+	/**
+	 * Heads of the task lists, one per bucket
+	 */
+	private final ScheduledTask[] buckets = new ScheduledTask[WHEEL_SIZE];
+
+	/**
+	 * Tick the wheel has been advanced to
+	 */
+	private long currentTick;
+
+	/**
+	 * Number of scheduled tasks
+	 */
+	private int size;
+
+	/**
+	 * Earliest deadline of all tasks, valid while earliestKnown is set
+	 */
+	private long earliest;
+	private boolean earliestKnown;
+
+	TimerWheel(long now) {
+		currentTick = now >> TICK_SHIFT;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Links a task into the bucket of its deadline. Overdue tasks go into the
+	 * current bucket.
+	 */
+	void add(ScheduledTask task) {
+		long tick = Math.max(task.deadline >> TICK_SHIFT, currentTick);
+		int index = (int) (tick & MASK);
+
+		task.bucket = index;
+		task.prev = null;
+		task.next = buckets[index];
+
+		if (task.next != null) {
+			task.next.prev = task;
+		}
+
+		buckets[index] = task;
+		size++;
+
+		if (earliestKnown && task.deadline - earliest < 0) {
+			earliest = task.deadline;
+		}
+	}
+
+	/**
+	 * Unlinks a task from its bucket.
+	 */
+	void remove(ScheduledTask task) {
+		if (task.prev != null) {
+			task.prev.next = task.next;
+		} else {
+			buckets[task.bucket] = task.next;
+		}
+
+		if (task.next != null) {
+			task.next.prev = task.prev;
+		}
+
+		task.next = null;
+		task.prev = null;
+		size--;
+
+		if (task.deadline == earliest) {
+			earliestKnown = false;
+		}
+	}
+
+	/**
+	 * Removes and returns a task whose deadline has passed, advancing the wheel up
+	 * to the current tick.
+	 *
+	 * @param now Current time in nanoseconds.
+	 * @return A due task, or null if none is due.
+	 */
+	ScheduledTask poll(long now) {
+		long nowTick = now >> TICK_SHIFT;
+
+		if (size == 0) {
+			currentTick = nowTick;
+			return null;
+		}
+
+		if (nowTick - currentTick >= WHEEL_SIZE) {
+			// Asleep for more than a rotation, visiting every bucket once is enough
+			currentTick = nowTick - WHEEL_SIZE + 1;
+		}
+
+		while (true) {
+			for (ScheduledTask task = buckets[(int) (currentTick & MASK)]; task != null; task = task.next) {
+				if (task.deadline - now <= 0) {
+					remove(task);
+					return task;
+				}
+			}
+
+			if (currentTick == nowTick) {
+				return null;
+			}
+
+			currentTick++;
+		}
+	}
+
+	/**
+	 * Returns the earliest deadline of all scheduled tasks. The value is cached
+	 * until the task holding it is removed.
+	 *
+	 * @return Deadline in nanoseconds, only meaningful if the wheel is not empty.
+	 */
+	long nextDeadline() {
+		if (!earliestKnown) {
+			boolean found = false;
+
+			for (ScheduledTask head : buckets) {
+				for (ScheduledTask task = head; task != null; task = task.next) {
+					if (!found || task.deadline - earliest < 0) {
+						earliest = task.deadline;
+						found = true;
+					}
+				}
+			}
+
+			earliestKnown = found;
+		}
+
+		return earliest;
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.rtcp;
+
+import java.nio.ByteBuffer;
+
+import wseemann.media.rplistening.protocol.PrivateListeningSession;
+import wseemann.media.rplistening.protocol.Source;
+import wseemann.media.rplistening.protocol.utils.RTCPConstants;
+import wseemann.media.rplistening.utils.Log;
+
+/**
+ * Decodes compound RTCP packets received on the shared RTP channel and updates
+ * the state of the sources they describe. Fields are read in place with
+ * absolute gets, so parsing allocates nothing.
+ *
+ * The parser is not thread safe, it is driven from the session's event loop.
+ */
+public class RTCPParser {
+
+	private static final String TAG = "RTCPParser";
+
+	/**
+	 * Size of the common RTCP header
+	 */
+	private static final int HEADER_SIZE = 4;
+
+	/**
+	 * Session the packets belong to
+	 */
+	private final PrivateListeningSession session;
+
+	/**
+	 * Number of compound packets that failed validation
+	 */
+	private long invalidPackets;
+
+	/**
+	 * Creates a parser for the given session.
+	 *
+	 * @param session Session the packets belong to.
+	 */
+	public RTCPParser(PrivateListeningSession session) {
+		this.session = session;
+	}
+
+	/**
+	 * Returns true if the packet is RTCP rather than RTP. When both share a
+	 * port, the second octet of RTCP holds a packet type between 192 and 223,
+	 * which RTP payload types with the marker bit do not use (RFC 5761 4).
+	 *
+	 * @param packet Buffer holding the packet between its position and limit.
+	 * @return True for RTCP.
+	 */
+	public static boolean isRTCP(ByteBuffer packet) {
+		if (packet.remaining() < HEADER_SIZE) {
+			return false;
+		}
+
+		int packetType = packet.get(packet.position() + 1) & 0xFF;
+		return packetType >= 192 && packetType <= 223;
+	}
+
+	/**
+	 * Validates and decodes a compound packet.
+	 *
+	 * @param packet      Buffer holding the packet between its position and
+	 *                    limit, left unchanged.
+	 * @param arrivalTime Arrival time of the packet in nanoseconds.
+	 * @return True if the packet was valid.
+	 */
+	public boolean parse(ByteBuffer packet, long arrivalTime) {
+		if (!validate(packet)) {
+			invalidPackets++;
+			return false;
+		}
+
+		int offset = packet.position();
+		int end = packet.limit();
+
+		while (offset < end) {
+			int count = packet.get(offset) & 0x1F;
+			int packetType = packet.get(offset + 1) & 0xFF;
+			int length = ((packet.getShort(offset + 2) & 0xFFFF) + 1) * 4;
+
+			switch (packetType) {
+			case RTCPConstants.RTCP_SR:
+				parseSenderReport(packet, offset, count, length, arrivalTime);
+				break;
+			case RTCPConstants.RTCP_RR:
+				parseReceiverReport(packet, offset, count, length, arrivalTime);
+				break;
+			case RTCPConstants.RTCP_SDES:
+				parseSourceDescription(packet, offset, count, length, arrivalTime);
+				break;
+			case RTCPConstants.RTCP_BYE:
+				parseBye(packet, offset, count, length);
+				break;
+			case RTCPConstants.RTCP_APP:
+				parseApp(packet, offset, length);
+				break;
+			case RTCPConstants.RTCP_XR:
+				parseExtendedReport(packet, offset, length, arrivalTime);
+				break;
+			default:
+				// Unknown packet types are skipped
+				break;
+			}
+
+			offset += length;
+		}
+
+		return true;
+	}
+
+	public long getInvalidPackets() {
+		return invalidPackets;
+	}
+
+	/**
+	 * Checks the version of every packet and that the lengths add up to the size
+	 * of the compound packet, as in RFC 3550 A.2. The device does not always
+	 * start with an SR or RR, so that rule is not enforced.
+	 */
+	private boolean validate(ByteBuffer packet) {
+		int offset = packet.position();
+		int end = packet.limit();
+
+		while (end - offset >= HEADER_SIZE) {
+			if ((packet.get(offset) & 0xC0) != (RTCPConstants.VERSION << 6)) {
+				return false;
+			}
+
+			int length = ((packet.getShort(offset + 2) & 0xFFFF) + 1) * 4;
+
+			if (length > end - offset) {
+				return false;
+			}
+
+			// Only the last packet may be padded
+			if ((packet.get(offset) & 0x20) != 0 && offset + length != end) {
+				return false;
+			}
+
+			offset += length;
+		}
+
+		return offset == end;
+	}
+
+	private void parseSenderReport(ByteBuffer packet, int offset, int count, int length, long arrivalTime) {
+		if (length < 28) {
+			return;
+		}
+
+		long ssrc = packet.getInt(offset + 4) & 0xFFFFFFFFL;
+		long ntpTimestamp = packet.getLong(offset + 8);
+		long rtpTimestamp = packet.getInt(offset + 16) & 0xFFFFFFFFL;
+
+		Source s = session.GetSource(ssrc);
+		double now = arrivalTime / 1000000;
+
+		// LSR is the middle 32 bits of the NTP timestamp
+		s.setLst((ntpTimestamp >>> 16) & 0xFFFFFFFFL);
+		s.setTimeOfLastSRRcvd(now);
+		s.setTimeOfLastRTCPArrival(now);
+		s.setSenderReport(ntpTimestamp, rtpTimestamp, arrivalTime);
+
+		if (!Log.suppressLogs) {
+			Log.d(TAG, "SR ssrc=0x" + Long.toHexString(ssrc) + "\tntp=0x" + Long.toHexString(ntpTimestamp) + "\trtp="
+					+ rtpTimestamp);
+		}
+
+		parseReportBlocks(packet, offset + 28, count, offset + length, ssrc, arrivalTime);
+	}
+
+	private void parseReceiverReport(ByteBuffer packet, int offset, int count, int length, long arrivalTime) {
+		if (length < 8) {
+			return;
+		}
+
+		long ssrc = packet.getInt(offset + 4) & 0xFFFFFFFFL;
+
+		session.GetSource(ssrc).setTimeOfLastRTCPArrival(arrivalTime / 1000000);
+
+		parseReportBlocks(packet, offset + 8, count, offset + length, ssrc, arrivalTime);
+	}
+
+	private void parseReportBlocks(ByteBuffer packet, int offset, int count, int end, long reporterSSRC,
+			long arrivalTime) {
+		for (int i = 0; i < count && offset + RTCPWriter.REPORT_BLOCK_SIZE <= end; i++) {
+			long ssrc = packet.getInt(offset) & 0xFFFFFFFFL;
+
+			// Only blocks about this session's own stream concern us
+			if (ssrc == session.SSRC) {
+				long lsr = packet.getInt(offset + 16) & 0xFFFFFFFFL;
+				long dlsr = packet.getInt(offset + 20) & 0xFFFFFFFFL;
+
+				if (!Log.suppressLogs) {
+					Log.d(TAG, "Report from 0x" + Long.toHexString(reporterSSRC) + "\tfraction="
+							+ (packet.get(offset + 4) & 0xFF) + "\tlsr=" + lsr + "\tdlsr=" + dlsr);
+				}
+
+				UpdateRoundTripTime(lsr, dlsr, arrivalTime);
+			}
+
+			offset += RTCPWriter.REPORT_BLOCK_SIZE;
+		}
+	}
+
+	/**
+	 * Computes the round trip time from the LSR and DLSR of a report block about
+	 * this session, as in RFC 3550 6.4.1: RTT = A - LSR - DLSR, with A the
+	 * middle 32 bits of the NTP time the report arrived at. A is taken from the
+	 * packet's arrival time, not the time it is parsed at, so time spent queued
+	 * in a receive batch does not count. The reporter only
+	 * fills LSR after receiving a Sender Report from us, a DLRR block answering
+	 * our reference time carries the same two values.
+	 */
+	private void UpdateRoundTripTime(long lsr, long dlsr, long arrivalTime) {
+		if (lsr == 0) {
+			return;
+		}
+
+		long arrival = (session.getClock().ntpTime(arrivalTime) >>> 16) & 0xFFFFFFFFL;
+		int roundTrip = (int) (arrival - lsr - dlsr);
+
+		// A negative value means the clocks or the report are off
+		if (roundTrip >= 0) {
+			session.addRoundTripTime(roundTrip * 1000000L / 65536);
+		}
+	}
+
+	/**
+	 * Walks the report blocks of an extended report (RFC 3611). Only DLRR blocks
+	 * are of interest, their sub-block about this session answers the receiver
+	 * reference time we sent.
+	 */
+	private void parseExtendedReport(ByteBuffer packet, int offset, int length, long arrivalTime) {
+		int end = offset + length;
+		offset += 8;
+
+		while (offset + 4 <= end) {
+			int blockType = packet.get(offset) & 0xFF;
+			int blockEnd = offset + ((packet.getShort(offset + 2) & 0xFFFF) + 1) * 4;
+
+			if (blockEnd > end) {
+				return;
+			}
+
+			if (blockType == RTCPConstants.XR_DLRR) {
+				for (int sub = offset + 4; sub + 12 <= blockEnd; sub += 12) {
+					if ((packet.getInt(sub) & 0xFFFFFFFFL) == session.SSRC) {
+						UpdateRoundTripTime(packet.getInt(sub + 4) & 0xFFFFFFFFL, packet.getInt(sub + 8) & 0xFFFFFFFFL,
+								arrivalTime);
+					}
+				}
+			}
+
+			offset = blockEnd;
+		}
+	}
+
+	private void parseSourceDescription(ByteBuffer packet, int offset, int count, int length, long arrivalTime) {
+		int start = offset;
+		int end = offset + length;
+		offset += HEADER_SIZE;
+
+		for (int i = 0; i < count && offset + 4 <= end; i++) {
+			long ssrc = packet.getInt(offset) & 0xFFFFFFFFL;
+			offset += 4;
+
+			session.GetSource(ssrc).setTimeOfLastRTCPArrival(arrivalTime / 1000000);
+
+			// Skip the items, the list ends with a null octet
+			while (offset < end && packet.get(offset) != 0) {
+				if (offset + 1 >= end) {
+					return;
+				}
+
+				offset += 2 + (packet.get(offset + 1) & 0xFF);
+			}
+
+			// Chunks are padded to 32 bits
+			offset = start + ((offset - start + 4) & ~3);
+		}
+	}
+
+	private void parseBye(ByteBuffer packet, int offset, int count, int length) {
+		for (int i = 0; i < count && HEADER_SIZE + (i + 1) * 4 <= length; i++) {
+			long ssrc = packet.getInt(offset + HEADER_SIZE + i * 4) & 0xFFFFFFFFL;
+
+			Log.d(TAG, "BYE from 0x" + Long.toHexString(ssrc));
+
+			session.HandleBye(ssrc);
+		}
+	}
+
+	private void parseApp(ByteBuffer packet, int offset, int length) {
+		if (length < 12 || Log.suppressLogs) {
+			return;
+		}
+
+		int name = packet.getInt(offset + 8);
+
+		Log.d(TAG, "APP " + (char) (name >>> 24) + (char) ((name >>> 16) & 0xFF) + (char) ((name >>> 8) & 0xFF)
+				+ (char) (name & 0xFF));
+	}
+}
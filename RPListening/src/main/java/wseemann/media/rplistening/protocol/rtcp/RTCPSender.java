@@ -0,0 +1,465 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.rtcp;
+
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import wseemann.media.rplistening.protocol.PrivateListeningSession;
+import wseemann.media.rplistening.protocol.Source;
+import wseemann.media.rplistening.protocol.engine.EventLoop;
+import wseemann.media.rplistening.protocol.engine.ScheduledTask;
+import wseemann.media.rplistening.protocol.rtp.JitterBuffer;
+import wseemann.media.rplistening.utils.Constants;
+import wseemann.media.rplistening.utils.Log;
+
+/*
+*   This class encapsulates the functionality to construct and send out an RTCP Packet. The
+*   sender runs as a task on the engine's control loop, shared by all sessions, and is
+*   scheduled for a specified amount of time ( as calculated using various RTCP parameters
+*   and reception feedback). When the task fires, it determines what kind of a RTCP Packets
+*   needs to be send out , constructs the appropriate RTCP packets and sends them. Its fields
+*   are only touched on the control loop, other threads go through the loop.
+*/
+
+public class RTCPSender extends ScheduledTask {
+	
+	private static final String TAG = "RTCPSender";
+	
+	/**
+	 * Names of the APP packets announcing the latency and the client version
+	 */
+	private static final int VDLY = RTCPWriter.packName("VDLY");
+	private static final int CVER = RTCPWriter.packName("CVER");
+
+	boolean sentAppPacketOne = false;
+	boolean sentAppPacketTwo = false;
+
+	/**
+	 * Session the reports are sent for
+	 */
+	private final PrivateListeningSession session;
+
+	/**
+	 * Event loop the sender runs on
+	 */
+	private final EventLoop eventLoop;
+
+	/**
+	 * Jitter buffer of the session's receiver, the VDLY latency is derived
+	 * from it
+	 */
+	private final JitterBuffer jitterBuffer;
+
+	/**
+	 * Sender Port for RTCP Packets
+	 */
+	private final int m_SendFromPort;
+
+	/**
+	 * Sender Address for RTCP Packets
+	 */
+	private final InetAddress m_InetAddress;
+
+	/**
+	 * Channel for sending RTCP, shared with the RTP receiver
+	 */
+	private DatagramChannel m_RTCPSenderChannel;
+
+	/**
+	 * Multicast Port for RTCP Packets
+	 */
+	private final int m_MulticastRTCPPort;
+
+	/**
+	 * Destination of the RTCP Packets
+	 */
+	private final InetSocketAddress m_RTCPAddress;
+
+	/**
+	 * Flag used to determine when to terminate after sending a BYE
+	 */
+	private boolean WaitingForByeBackoff = false;
+
+	/**
+	 * Run on the event loop once the sender has terminated after a BYE
+	 */
+	private Runnable onByeComplete;
+
+	/**
+	 * Position of the first source reported in the next report, used to rotate
+	 * through more sources than fit into one report
+	 */
+	private int NextReportedSource = 0;
+
+	/**
+	 * Works out the latency announced in the VDLY packets
+	 */
+	private final VDLYController vdlyController;
+
+	/**
+	 * Writer the compound packets are assembled with
+	 */
+	private final RTCPWriter writer = new RTCPWriter();
+
+	/**
+	 * Constructor for the class. Takes in a TCP/IP Address and port numbers for
+	 * sending and receiving RTCP Packets.
+	 * 
+	 * @param session                 Session the reports are sent for.
+	 * @param eventLoop               Event loop the sender runs on.
+	 * @param jitterBuffer            Jitter buffer of the session's receiver.
+	 * @param MulticastGroupIPAddress Dotted representation of the Multicast
+	 *                                address.
+	 * @param RTCPSendFromPort        Port used to send RTCP Packets
+	 * @param RTCPGroupPort           Port for Multicast group (for receiving RTP
+	 *                                Packets).
+	 *
+	 */
+
+	public RTCPSender(PrivateListeningSession session, EventLoop eventLoop, JitterBuffer jitterBuffer,
+			InetAddress MulticastGroupIPAddress, int RTCPSendFromPort, int RTCPGroupPort) {
+		this.session = session;
+		this.eventLoop = eventLoop;
+		this.jitterBuffer = jitterBuffer;
+		// TODO: Perform sanity check on group address and port number - WA
+		m_InetAddress = MulticastGroupIPAddress;
+		m_MulticastRTCPPort = RTCPGroupPort;
+		m_SendFromPort = RTCPSendFromPort;
+		m_RTCPAddress = new InetSocketAddress(m_InetAddress, m_MulticastRTCPPort);
+
+		// Nothing is measured yet, start from the conservative default
+		vdlyController = new VDLYController(Constants.VDLY_INITIAL_MS * 1000L, Constants.VDLY_MIN_MS,
+				Constants.VDLY_MAX_MS, Constants.VDLY_HYSTERESIS_MS);
+	}
+
+	/**
+	 * Starts sending reports on the sender's event loop. May be called from any
+	 * thread.
+	 *
+	 * @param RTCPSenderChannel Channel the reports are sent from, shared with the
+	 *                          RTP receiver.
+	 */
+	public void start(DatagramChannel RTCPSenderChannel) {
+		eventLoop.execute(() -> startOnLoop(RTCPSenderChannel));
+	}
+
+	private void startOnLoop(DatagramChannel RTCPSenderChannel) {
+		if (session.IsByeRequested) {
+			// Leaving before the first report, stay silent
+			return;
+		}
+
+		this.m_RTCPSenderChannel = RTCPSenderChannel;
+
+		Log.d(TAG, "RTCP Sender started ");
+
+		Log.d(TAG, "RTCP Group: " + m_InetAddress.toString() + ":" + m_MulticastRTCPPort);
+		Log.d(TAG, "RTCP Local port for sending: " + m_SendFromPort);
+
+		// Announce the latency and version, followed by the first report
+		ByteBuffer CompoundRTCPPacket = AssembleRTCPPacket();
+		SendPacket(CompoundRTCPPacket);
+		CompoundRTCPPacket = AssembleRTCPPacket();
+		SendPacket(CompoundRTCPPacket);
+		CompoundRTCPPacket = AssembleRTCPPacket();
+		SendPacket(CompoundRTCPPacket);
+		session.TimeOfLastRTCPSent = session.CurrentTime();
+		session.initial = false;
+
+		ScheduleNextReport();
+	}
+
+	/**
+	 * Leaves the session. A BYE is sent as a scheduled event on the event loop:
+	 * at once while the group is small, otherwise after the BYE backoff of RFC
+	 * 3550 6.3.7. If no report was ever sent, no BYE is sent either.
+	 *
+	 * @param onComplete Run on the event loop once the sender has terminated.
+	 */
+	public void bye(Runnable onComplete) {
+		eventLoop.execute(() -> {
+			onByeComplete = onComplete;
+			session.IsByeRequested = true;
+
+			if (m_RTCPSenderChannel == null) {
+				terminate();
+			} else if (session.GetNumberOfMembers() < 50) {
+				// Small groups may leave without reconsideration
+				WaitingForByeBackoff = false;
+				eventLoop.schedule(this, 0);
+			} else {
+				WaitingForByeBackoff = true;
+				session.TimeOfLastRTCPSent = session.CurrentTime();
+				ScheduleNextReport();
+			}
+		});
+	}
+
+	/**
+	 * Stops sending reports and runs the BYE completion, if any.
+	 */
+	private void terminate() {
+		eventLoop.cancel(this);
+
+		Log.d(TAG, "RTCP Sender terminated");
+
+		Runnable completion = onByeComplete;
+		onByeComplete = null;
+
+		if (completion != null) {
+			completion.run();
+		}
+	}
+
+	/**
+	 * Update T and Td (Session level variables) and schedule the next run at the
+	 * randomized interval T.
+	 */
+	private void ScheduleNextReport() {
+		session.CalculateInterval();
+
+		Log.d(TAG, "RTCP wait");
+
+		eventLoop.schedule(this, (long) (session.T * 1000000000L));
+	}
+
+	/**
+	 * Runs once the interval T has elapsed and sends the RTCP packet that is due,
+	 * or starts the BYE backoff. This function also implements the BYE backoff algorithm
+	 * with Option B. The BYE Backoff Algorithm is used in order to avoid a flood
+	 * of BYE packets when many users leave the system
+	 *
+	 * Note : if a client has never sent an RTP or RTCP Packet, it will not send a
+	 * BYE Packet when it leaves the group. For More Information : See the Flowchart
+	 *
+	 */
+	@Override
+	public void run() {
+		// flag terminates the report schedule
+		boolean terminate = false;
+
+		// Forget the sources that went silent before counting members again
+		session.TimeoutSources();
+
+		// The timer fires once the interval T has elapsed, so a report is due.
+		// Comparing against the millisecond clock here would skip the reports
+		// whose timer fires a fraction of a millisecond early.
+
+		// Is it a BYE packet waiting for its backoff {{B True}}
+		if ((session.IsByeRequested && WaitingForByeBackoff)) {
+			// If it is bye then did we ever sent anything {{C True}}
+			if (m_RTCPSenderChannel != null) {
+				// ** BYE Backoff Algorithm **
+				// Yes, we did send something, so we need to send this RTCP BYE
+				// but first remove all sources from the table
+				session.RemoveAllSources();
+
+				// We are not active senders anymore
+				session.GetMySource().setActiveSender(false);
+				session.TimeOfLastRTCPSent = session.CurrentTime();
+			} else // We never sent anything and we have to quit :( do not send BYE {{C False}}
+			{
+				terminate = true;
+			}
+		} else // {{B False}}
+		{
+			ByteBuffer CompoundRTCPPacket = AssembleRTCPPacket();
+			SendPacket(CompoundRTCPPacket);
+
+			// If the packet just sent was a BYE packet, then its time to terminate.
+			if (session.IsByeRequested && !WaitingForByeBackoff) // {{D True}}
+			{
+				// We have sent a BYE packet, so its time to terminate
+				terminate = true;
+			} else // {{D False}}
+			{
+				session.TimeOfLastRTCPSent = session.CurrentTime();
+			}
+
+		}
+
+		if (!Log.suppressLogs) {
+			Log.d(TAG, "RTT " + session.getRoundTripTime().summary("us"));
+			Log.d(TAG, "Latency " + session.getEndToEndLatency().summary("us"));
+			Log.d(TAG, "Kernel drops " + session.m_RTPReceiver.getKernelDrops() + "\tbad packets "
+					+ session.m_RTPReceiver.getBadPackets());
+			Log.d(TAG, "Jitter buffer late " + jitterBuffer.getLatePackets() + "\tlost " + jitterBuffer.getLostPackets()
+					+ "\tduplicate " + jitterBuffer.getDuplicatePackets() + "\tdiscarded "
+					+ jitterBuffer.getDiscardedPackets());
+		}
+
+		WaitingForByeBackoff = false;
+		session.tn = session.CurrentTime() + session.T * 1000;
+		session.pmembers = session.GetNumberOfMembers();
+
+		if (terminate) {
+			terminate();
+		} else {
+			ScheduleNextReport();
+		}
+	}
+
+	/**
+	 * Top Level Function to assemble a compound RTCP Packet. This function
+	 * determines what kind of RTCP Packet needs to be created and sent out. The
+	 * latency (VDLY) and version (CVER) APP packets are announced first, after
+	 * that a Receiver Report (RR) is sent out together with an extended report
+	 * carrying our reference time, followed by a new VDLY packet when the
+	 * latency changed. If a BYE was requested by the
+	 * application , a BYE PAcket is appended.
+	 *
+	 * The packet is written into the sender's reusable writer, nothing is
+	 * allocated.
+	 *
+	 * @return The Compound RTCP Packet, valid until the next call
+	 */
+
+	public ByteBuffer AssembleRTCPPacket() {
+		writer.reset();
+
+		if (!sentAppPacketOne) {
+			writer.writeApp(0, 0, VDLY, (int) vdlyController.getAdvertisedDelay());
+			sentAppPacketOne = true;
+			return writer.flip();
+		} else if (!sentAppPacketTwo) {
+			writer.writeApp(0, 0, CVER, 808464434);
+			sentAppPacketTwo = true;
+			return writer.flip();
+		} else
+			AssembleRTCPReceiverReportPacket();
+
+		// We send no SRs, so the device can only time the round trip for us
+		// from our reference time (RFC 3611 4.4)
+		writer.writeReceiverReferenceTime(session.SSRC, session.getClock().ntpTime());
+
+		// Announce the latency again once the measurements moved it
+		if (vdlyController.update(jitterBuffer, session.getDecoderLatency())) {
+			Log.d(TAG, "VDLY " + vdlyController.getAdvertisedDelay() + "us");
+			writer.writeApp(0, 0, VDLY, (int) vdlyController.getAdvertisedDelay());
+		}
+
+		// Append a BYE packet if necessary
+		if (session.IsByeRequested)
+			writer.writeBye(session.SSRC);
+
+		return writer.flip();
+	}
+
+	/*****************************************************************************************
+	 *
+	 * Functions to assemble RTCP packet components.
+	 *
+	 *******************************************************************************************/
+
+	/**
+	 * Writes a Receiver Report RTCP Packet.
+	 *
+	 * 0 1 2 3 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+	 * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+ |V=2|P| RC
+	 * | PT=RR=201 | length | header
+	 * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+ | SSRC of
+	 * sender | +=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+ |
+	 * report blocks ...
+	 */
+
+	private void AssembleRTCPReceiverReportPacket() {
+		writer.beginReceiverReport(session.SSRC);
+		AssembleRTCPReceptionReport();
+		writer.end();
+	}
+
+	/**
+	 * Writes the Reception reports by determining which source need to be
+	 * included. Only sources heard from since the last report are included. A
+	 * report carries at most 31 blocks, with more sources the blocks rotate over
+	 * the sources from one report to the next, so every source is reported in
+	 * turn.
+	 */
+
+	private void AssembleRTCPReceptionReport() {
+		int ActiveSenders = 0;
+
+		// One snapshot for both passes, so the count matches the blocks written
+		Source[] ActiveSenderCollection = session.GetSources();
+
+		for (Source s : ActiveSenderCollection) {
+			if (IsReportable(s)) {
+				ActiveSenders++;
+			}
+		}
+
+		if (ActiveSenders == 0) {
+			return;
+		}
+
+		// Keeps track of how many report blocks are generated. Make sure
+		// that no more than 31 blocks are generated.
+		int ReceptionReportBlocks = Math.min(ActiveSenders, writer.remainingReportBlocks());
+		int first = NextReportedSource % ActiveSenders;
+		int i = 0;
+
+		// Iterate through all the sources and generate blocks for those
+		// that are active senders, starting where the previous report stopped.
+		for (Source s : ActiveSenderCollection) {
+			if (!IsReportable(s)) {
+				continue;
+			}
+
+			if ((i - first + ActiveSenders) % ActiveSenders < ReceptionReportBlocks) {
+				// Update all the statistics associated with this source
+				s.UpdateStatistics();
+				writer.writeReportBlock(s);
+			}
+
+			i++;
+		}
+
+		NextReportedSource = first + ReceptionReportBlocks;
+	}
+
+	/**
+	 * Returns true if a reception report block should be sent for the source.
+	 */
+	private boolean IsReportable(Source s) {
+		return (s.getTimeOfLastRTPArrival() > session.TimeOfLastRTCPSent) && (s.getSsrc() != session.SSRC);
+	}
+
+	/**
+	 * Sends the RTCP packet. Zero return is error condition
+	 *
+	 * @param packet packet to be sent out.
+	 * @return 1 for success, 0 for failure.
+	 */
+
+	private int SendPacket(ByteBuffer packet) {
+		// Set ttl=5 and send
+		try {
+			m_RTCPSenderChannel.send(packet, m_RTCPAddress); // ,(byte) 5 );
+			return (1);
+		} catch (java.io.IOException e) {
+			System.err.println("Error: While sending the RTCP Packet");
+			System.err.println(e);
+			return (0);
+		}
+	}
+
+}
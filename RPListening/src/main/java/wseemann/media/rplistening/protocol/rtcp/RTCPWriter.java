@@ -0,0 +1,269 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.rtcp;
+
+import java.nio.ByteBuffer;
+
+import wseemann.media.rplistening.protocol.Source;
+import wseemann.media.rplistening.protocol.utils.RTCPConstants;
+
+/**
+ * Serializes compound RTCP packets into one reusable buffer in a single pass.
+ * Each packet is started with its header and a placeholder length, its body is
+ * written in place and the length and count fields are patched when the packet
+ * is finished, so assembling a compound packet allocates nothing and copies
+ * nothing.
+ *
+ * A writer is not thread safe, each sender owns one.
+ */
+public class RTCPWriter {
+
+	/**
+	 * Largest compound packet, one Ethernet MTU
+	 */
+	private static final int MAX_PACKET_SIZE = 1500;
+
+	/**
+	 * Size of one reception report block
+	 */
+	public static final int REPORT_BLOCK_SIZE = 24;
+
+	/**
+	 * SDES item type of the canonical name
+	 */
+	private static final int SDES_CNAME = 1;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+
+	/**
+	 * Offset of the packet being written, -1 if none is open
+	 */
+	private int packetStart = -1;
+
+	/**
+	 * Number of report blocks, sources or items in the open packet
+	 */
+	private int count;
+
+	/**
+	 * Discards everything written and starts a new compound packet.
+	 */
+	public void reset() {
+		buffer.clear();
+		packetStart = -1;
+		count = 0;
+	}
+
+	/**
+	 * Returns the number of bytes written since the last reset.
+	 */
+	public int size() {
+		return buffer.position();
+	}
+
+	/**
+	 * Finishes the open packet and returns the underlying buffer with position
+	 * and limit set around the compound packet written since the last reset.
+	 *
+	 * @return The buffer, valid until the next reset.
+	 */
+	public ByteBuffer flip() {
+		if (packetStart >= 0) {
+			end();
+		}
+
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Returns the number of report blocks that still fit into the open packet
+	 * and the buffer.
+	 */
+	public int remainingReportBlocks() {
+		return Math.min(31 - count, buffer.remaining() / REPORT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Starts a receiver report.
+	 *
+	 * @param ssrc SSRC of the reporting source.
+	 */
+	public void beginReceiverReport(long ssrc) {
+		begin(RTCPConstants.RTCP_RR);
+		buffer.putInt((int) ssrc);
+	}
+
+	/**
+	 * Starts a sender report.
+	 *
+	 * @param ssrc         SSRC of the reporting source.
+	 * @param ntpTimestamp NTP timestamp, 32.32 fixed point seconds.
+	 * @param rtpTimestamp RTP timestamp matching the NTP timestamp.
+	 * @param packetCount  Sender's packet count.
+	 * @param octetCount   Sender's octet count.
+	 */
+	public void beginSenderReport(long ssrc, long ntpTimestamp, long rtpTimestamp, long packetCount,
+			long octetCount) {
+		begin(RTCPConstants.RTCP_SR);
+		buffer.putInt((int) ssrc);
+		buffer.putLong(ntpTimestamp);
+		buffer.putInt((int) rtpTimestamp);
+		buffer.putInt((int) packetCount);
+		buffer.putInt((int) octetCount);
+	}
+
+	/**
+	 * Writes a reception report block into the open SR or RR from the statistics
+	 * of a source. The statistics must have been updated beforehand.
+	 *
+	 * @param source The reported source.
+	 */
+	public void writeReportBlock(Source source) {
+		writeReportBlock(source.getSsrc(), (int) source.getFraction(), source.getLost(), source.getLastSeq(),
+				source.getJitter(), source.getLst(), (long) source.getDlsr());
+	}
+
+	/**
+	 * Writes a reception report block into the open SR or RR.
+	 *
+	 * @param ssrc     SSRC of the reported source.
+	 * @param fraction Fraction lost, 8 bit fixed point.
+	 * @param lost     Cumulative number of packets lost, 24 bits.
+	 * @param lastSeq  Extended highest sequence number received.
+	 * @param jitter   Interarrival jitter in timestamp units.
+	 * @param lsr      Middle 32 bits of the NTP timestamp of the last SR.
+	 * @param dlsr     Delay since the last SR in units of 1/65536 seconds.
+	 */
+	public void writeReportBlock(long ssrc, int fraction, long lost, long lastSeq, long jitter, long lsr, long dlsr) {
+		buffer.putInt((int) ssrc);
+		buffer.putInt((fraction << 24) | (int) (lost & 0xFFFFFF));
+		buffer.putInt((int) lastSeq);
+		buffer.putInt((int) jitter);
+		buffer.putInt((int) lsr);
+		buffer.putInt((int) dlsr);
+		count++;
+	}
+
+	/**
+	 * Writes an SDES packet with the CNAME of a single source.
+	 *
+	 * @param ssrc  SSRC of the source.
+	 * @param cname Canonical name, at most 255 bytes.
+	 */
+	public void writeSourceDescription(long ssrc, byte[] cname) {
+		begin(RTCPConstants.RTCP_SDES);
+		buffer.putInt((int) ssrc);
+		buffer.put((byte) SDES_CNAME);
+		buffer.put((byte) cname.length);
+		buffer.put(cname);
+
+		// The item list ends with a null octet and is padded to 32 bits
+		do {
+			buffer.put((byte) 0);
+		} while (((buffer.position() - packetStart) & 3) != 0);
+
+		count = 1;
+		end();
+	}
+
+	/**
+	 * Writes an APP packet carrying a single 32 bit value.
+	 *
+	 * @param subtype Application dependent subtype.
+	 * @param ssrc    SSRC of the source.
+	 * @param name    Four ASCII characters, packed into an int.
+	 * @param value   The application data.
+	 */
+	public void writeApp(int subtype, long ssrc, int name, int value) {
+		begin(RTCPConstants.RTCP_APP);
+		buffer.putInt((int) ssrc);
+		buffer.putInt(name);
+		buffer.putInt(value);
+		count = subtype;
+		end();
+	}
+
+	/**
+	 * Writes an extended report with a receiver reference time block (RFC 3611
+	 * 4.4). A receiver that only sends RRs gets no LSR back, a device that
+	 * answers the block with a DLRR block lets us measure the round trip.
+	 *
+	 * @param ssrc         SSRC of the reporting source.
+	 * @param ntpTimestamp NTP timestamp, 32.32 fixed point seconds.
+	 */
+	public void writeReceiverReferenceTime(long ssrc, long ntpTimestamp) {
+		begin(RTCPConstants.RTCP_XR);
+		buffer.putInt((int) ssrc);
+		buffer.put((byte) RTCPConstants.XR_RRTR);
+		buffer.put((byte) 0);
+		buffer.putShort((short) 2);
+		buffer.putLong(ntpTimestamp);
+		end();
+	}
+
+	/**
+	 * Writes a BYE packet for a single source.
+	 *
+	 * @param ssrc SSRC of the leaving source.
+	 */
+	public void writeBye(long ssrc) {
+		begin(RTCPConstants.RTCP_BYE);
+		buffer.putInt((int) ssrc);
+		count = 1;
+		end();
+	}
+
+	/**
+	 * Finishes the open packet, patching its count and length fields.
+	 */
+	public void end() {
+		int length = (buffer.position() - packetStart) / 4 - 1;
+
+		buffer.put(packetStart, (byte) ((RTCPConstants.VERSION << 6) | (RTCPConstants.PADDING << 5) | (count & 0x1F)));
+		buffer.putShort(packetStart + 2, (short) length);
+
+		packetStart = -1;
+		count = 0;
+	}
+
+	/**
+	 * Packs four ASCII characters into an int, e.g. an APP packet name.
+	 *
+	 * @param name Four character name.
+	 * @return The packed name.
+	 */
+	public static int packName(String name) {
+		return (name.charAt(0) << 24) | (name.charAt(1) << 16) | (name.charAt(2) << 8) | name.charAt(3);
+	}
+
+	private void begin(int packetType) {
+		if (packetStart >= 0) {
+			end();
+		}
+
+		packetStart = buffer.position();
+		count = 0;
+		// Count and length are patched in end()
+		buffer.put((byte) 0);
+		buffer.put((byte) packetType);
+		buffer.putShort((short) 0);
+	}
+}
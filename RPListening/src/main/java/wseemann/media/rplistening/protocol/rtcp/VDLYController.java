@@ -0,0 +1,111 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.rtcp;
+
+import wseemann.media.rplistening.protocol.rtp.JitterBuffer;
+
+/**
+ * Works out the audio latency advertised to the device in the VDLY APP
+ * packet, which the device delays its video by to keep it in sync. The
+ * latency is the jitter buffer delay, or the media actually buffered if that
+ * is more, plus headroom for the measured jitter and the output latency of
+ * the decoder. A new value is only advertised when it moves by more than a
+ * hysteresis step, so small fluctuations do not make the device resync.
+ *
+ * The controller is not thread safe, it is driven by the RTCP sender on the
+ * control loop. The jitter buffer it reads is filled on a media loop, only its
+ * volatile delay, jitter and occupancy figures are read.
+ */
+public class VDLYController {
+
+	/**
+	 * Number of jitter deviations kept as headroom on top of the buffer delay
+	 */
+	private static final int JITTER_HEADROOM = 2;
+
+	private final long minDelay;
+	private final long maxDelay;
+	private final long hysteresis;
+
+	/**
+	 * Delay last advertised to the device, in microseconds
+	 */
+	private long advertisedDelay;
+
+	/**
+	 * Creates a controller.
+	 *
+	 * @param initialDelayUs Delay advertised before anything was measured, in
+	 *                       microseconds.
+	 * @param minDelayMs     Lower bound of the advertised delay in milliseconds.
+	 * @param maxDelayMs     Upper bound of the advertised delay in milliseconds.
+	 * @param hysteresisMs   Change needed before a new delay is advertised, in
+	 *                       milliseconds.
+	 */
+	public VDLYController(long initialDelayUs, int minDelayMs, int maxDelayMs, int hysteresisMs) {
+		this.minDelay = minDelayMs * 1000L;
+		this.maxDelay = maxDelayMs * 1000L;
+		this.hysteresis = hysteresisMs * 1000L;
+		this.advertisedDelay = clamp(initialDelayUs);
+	}
+
+	/**
+	 * Returns the delay to advertise, in microseconds.
+	 */
+	public long getAdvertisedDelay() {
+		return advertisedDelay;
+	}
+
+	/**
+	 * Computes the optimal delay from the current measurements.
+	 *
+	 * @param jitterBuffer     The session's jitter buffer.
+	 * @param decoderLatencyUs Output latency of the decoder in microseconds.
+	 * @return The delay in microseconds, within the bounds.
+	 */
+	public long computeDelay(JitterBuffer jitterBuffer, long decoderLatencyUs) {
+		long buffered = Math.max(jitterBuffer.getTargetDelay(), jitterBuffer.getBufferedDuration());
+		long headroom = JITTER_HEADROOM * jitterBuffer.getJitter();
+
+		return clamp((buffered + headroom) / 1000 + decoderLatencyUs);
+	}
+
+	/**
+	 * Updates the advertised delay from the current measurements.
+	 *
+	 * @param jitterBuffer     The session's jitter buffer.
+	 * @param decoderLatencyUs Output latency of the decoder in microseconds.
+	 * @return True if the advertised delay changed and must be sent again.
+	 */
+	public boolean update(JitterBuffer jitterBuffer, long decoderLatencyUs) {
+		long delay = computeDelay(jitterBuffer, decoderLatencyUs);
+
+		if (Math.abs(delay - advertisedDelay) < hysteresis) {
+			return false;
+		}
+
+		advertisedDelay = delay;
+		return true;
+	}
+
+	private long clamp(long delay) {
+		return Math.max(minDelay, Math.min(maxDelay, delay));
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.rtp;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import wseemann.media.rplistening.protocol.utils.SessionClock;
+
+/**
+ * A pool of receive buffers a non-blocking channel is drained into in one go,
+ * so the queued datagrams are received back to back before any of them is
+ * processed. The buffers are direct and allocated once.
+ *
+ * The batch is not thread safe, it is meant to be driven from the session's
+ * event loop only.
+ */
+final class DatagramBatch {
+
+	private final ByteBuffer[] buffers;
+	private final SocketAddress[] senders;
+	private final long[] arrivalTimes;
+
+	/**
+	 * Number of datagrams received by the last call to {@link #receive}
+	 */
+	private int size;
+
+	/**
+	 * Creates a batch.
+	 *
+	 * @param capacity   Largest number of datagrams received at once.
+	 * @param bufferSize Size of each receive buffer.
+	 */
+	DatagramBatch(int capacity, int bufferSize) {
+		buffers = new ByteBuffer[capacity];
+		senders = new SocketAddress[capacity];
+		arrivalTimes = new long[capacity];
+
+		for (int i = 0; i < capacity; i++) {
+			buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+		}
+	}
+
+	/**
+	 * Receives the queued datagrams, up to the capacity of the batch.
+	 *
+	 * @param channel Non-blocking channel to receive from.
+	 * @param clock   Clock the arrival times are taken from.
+	 * @return Number of datagrams received, the capacity if more may be queued.
+	 * @throws IOException If receiving failed.
+	 */
+	int receive(DatagramChannel channel, SessionClock clock) throws IOException {
+		size = 0;
+
+		while (size < buffers.length) {
+			ByteBuffer buf = buffers[size];
+			buf.clear();
+
+			SocketAddress sender = channel.receive(buf);
+
+			if (sender == null) {
+				break;
+			}
+
+			buf.flip();
+			senders[size] = sender;
+			arrivalTimes[size] = clock.nanoTime();
+			size++;
+		}
+
+		return size;
+	}
+
+	int capacity() {
+		return buffers.length;
+	}
+
+	/**
+	 * Returns a received datagram between the buffer's position and limit,
+	 * valid until the next call to {@link #receive}.
+	 */
+	ByteBuffer buffer(int index) {
+		return buffers[index];
+	}
+
+	SocketAddress sender(int index) {
+		return senders[index];
+	}
+
+	long arrivalTime(int index) {
+		return arrivalTimes[index];
+	}
+}
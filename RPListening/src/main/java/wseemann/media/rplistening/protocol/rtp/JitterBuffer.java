@@ -0,0 +1,454 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.rtp;
+
+import java.nio.ByteBuffer;
+
+import wseemann.media.rplistening.protocol.utils.DriftEstimator;
+
+/**
+ * Adaptive jitter buffer placed between the RTP receiver and the audio decoder.
+ * Packets are stored in a ring of preallocated slots indexed by sequence
+ * number, so out of order packets are put back in order and duplicates are
+ * discarded. Each packet is released at its playout time, which is its RTP
+ * timestamp mapped onto the local clock plus a target delay. The target delay
+ * follows the measured interarrival jitter: it grows at once when the jitter
+ * rises and shrinks slowly when the network calms down. Packets that arrive
+ * after their slot was played out are dropped. The sender's clock drifts
+ * against ours over long sessions, the playout times follow the measured drift
+ * so the delay stays flat instead of creeping until packets arrive too late.
+ *
+ * The buffer is not thread safe, it is meant to be driven from the session's
+ * event loop only. The delay, jitter, buffered duration and packet counter
+ * getters may be read from the control loop for reporting.
+ */
+public class JitterBuffer {
+
+	/**
+	 * Number of slots, must be a power of two
+	 */
+	private static final int CAPACITY = 64;
+
+	/**
+	 * Largest packet a slot can hold
+	 */
+	private static final int SLOT_SIZE = 2048;
+
+	/**
+	 * Number of jitter deviations the target delay covers
+	 */
+	private static final int JITTER_MULTIPLIER = 4;
+
+	/**
+	 * Divisor of the step the target delay takes when shrinking
+	 */
+	private static final int SHRINK_RATE = 64;
+
+	/**
+	 * Length of a drift measurement window and number of windows the drift is
+	 * fitted over, two minutes in all
+	 */
+	private static final int DRIFT_WINDOW_MS = 5000;
+	private static final int DRIFT_WINDOWS = 24;
+
+	private final ByteBuffer[] slots = new ByteBuffer[CAPACITY];
+	private final int[] slotSeq = new int[CAPACITY];
+	private final long[] slotTimestamp = new long[CAPACITY];
+
+	/**
+	 * RTP clock rate of the stream
+	 */
+	private final int clockRate;
+
+	/**
+	 * Lower bound of the target delay in nanoseconds
+	 */
+	private final long minDelay;
+
+	/**
+	 * Upper bound of the target delay in nanoseconds
+	 */
+	private final long maxDelay;
+
+	/**
+	 * Current target delay in nanoseconds
+	 */
+	private volatile long targetDelay;
+
+	/**
+	 * Interarrival jitter estimate in nanoseconds
+	 */
+	private volatile long jitter;
+
+	/**
+	 * Smallest transit time seen (arrival time minus media time), the reference
+	 * playout times are computed from
+	 */
+	private long baseTransit;
+
+	/**
+	 * Measures the drift of the sender's clock against ours
+	 */
+	private final DriftEstimator driftEstimator = new DriftEstimator(DRIFT_WINDOW_MS, DRIFT_WINDOWS);
+
+	/**
+	 * Transit time the drift added since the stream started, in nanoseconds
+	 */
+	private double driftOffset;
+
+	/**
+	 * Media time of the highest packet received, in nanoseconds
+	 */
+	private long lastMediaTime;
+
+	/**
+	 * Transit time of the previous packet
+	 */
+	private long lastTransit;
+
+	/**
+	 * Last extended RTP timestamp, used to unwrap 32 bit timestamps
+	 */
+	private long lastTimestamp;
+
+	/**
+	 * Sequence number of the next packet to play out
+	 */
+	private int playoutSeq;
+
+	/**
+	 * Highest sequence number received
+	 */
+	private int highestSeq;
+
+	/**
+	 * Extended RTP timestamp of the packet with the highest sequence number,
+	 * reordered packets leave it alone so the packet duration is only measured
+	 * between neighbours
+	 */
+	private long highestTimestamp;
+
+	/**
+	 * Media duration of one packet in nanoseconds, measured from consecutive
+	 * timestamps
+	 */
+	private volatile long packetDuration;
+
+	/**
+	 * Number of packets currently buffered
+	 */
+	private volatile int occupancy;
+
+	private boolean started;
+
+	private volatile long latePackets;
+	private volatile long duplicatePackets;
+	private volatile long reorderedPackets;
+	private volatile long lostPackets;
+
+	/**
+	 * Packets too large for a slot
+	 */
+	private volatile long discardedPackets;
+
+	/**
+	 * Creates a jitter buffer.
+	 *
+	 * @param clockRate      RTP clock rate of the stream.
+	 * @param minDelayMs     Lower bound of the target delay in milliseconds.
+	 * @param initialDelayMs Target delay used until jitter has been measured.
+	 * @param maxDelayMs     Upper bound of the target delay in milliseconds.
+	 */
+	public JitterBuffer(int clockRate, int minDelayMs, int initialDelayMs, int maxDelayMs) {
+		this.clockRate = clockRate;
+		this.minDelay = minDelayMs * 1000000L;
+		this.maxDelay = maxDelayMs * 1000000L;
+		this.targetDelay = initialDelayMs * 1000000L;
+
+		for (int i = 0; i < CAPACITY; i++) {
+			slots[i] = ByteBuffer.allocateDirect(SLOT_SIZE);
+			slotSeq[i] = -1;
+		}
+	}
+
+	/**
+	 * Stores a packet. The packet bytes are copied into a preallocated slot, so
+	 * the buffer backing the view can be reused as soon as this returns.
+	 *
+	 * @param packet      The received packet.
+	 * @param arrivalTime Arrival time of the packet in nanoseconds.
+	 * @return True if the packet was buffered, false if it was late, a
+	 *         duplicate or too large for a slot.
+	 */
+	public boolean put(RTPPacket packet, long arrivalTime) {
+		int seq = packet.getSequenceNumber();
+
+		if (packet.getLength() > SLOT_SIZE) {
+			discardedPackets++;
+			return false;
+		}
+
+		if (!started) {
+			started = true;
+			playoutSeq = seq;
+			highestSeq = seq;
+			lastTimestamp = packet.getTimestamp();
+			highestTimestamp = lastTimestamp;
+			baseTransit = arrivalTime - toNanos(lastTimestamp);
+			lastTransit = baseTransit;
+			lastMediaTime = toNanos(lastTimestamp);
+			driftOffset = 0;
+			driftEstimator.reset();
+		}
+
+		int distance = (short) (seq - playoutSeq);
+
+		if (distance < 0) {
+			// Its playout time has passed
+			latePackets++;
+			return false;
+		}
+
+		if (distance >= CAPACITY) {
+			// Too far ahead, give up on the oldest packets to make room
+			skip(distance - CAPACITY + 1);
+		}
+
+		int index = seq & (CAPACITY - 1);
+
+		if (slotSeq[index] == seq) {
+			duplicatePackets++;
+			return false;
+		}
+
+		long timestamp = extendTimestamp(packet.getTimestamp());
+		long mediaTime = toNanos(timestamp);
+
+		driftEstimator.add(arrivalTime, mediaTime);
+
+		if ((short) (seq - highestSeq) < 0) {
+			reorderedPackets++;
+		} else {
+			if (((seq - highestSeq) & 0xFFFF) == 1 && timestamp > highestTimestamp) {
+				packetDuration = toNanos(timestamp - highestTimestamp);
+			}
+
+			highestSeq = seq;
+			highestTimestamp = timestamp;
+
+			// Accumulate the drift over the media time played since the last packet
+			driftOffset += driftEstimator.getDrift() * (mediaTime - lastMediaTime);
+			lastMediaTime = mediaTime;
+		}
+
+		updateDelay(arrivalTime - mediaTime - (long) driftOffset);
+
+		ByteBuffer slot = slots[index];
+		ByteBuffer source = packet.getBuffer();
+		int position = source.position();
+		int limit = source.limit();
+		source.limit(packet.getOffset() + packet.getLength());
+		source.position(packet.getOffset());
+		slot.clear();
+		slot.put(source);
+		slot.flip();
+		source.limit(limit);
+		source.position(position);
+
+		slotSeq[index] = seq;
+		slotTimestamp[index] = timestamp;
+		occupancy++;
+
+		return true;
+	}
+
+	/**
+	 * Returns the next packet if its playout time has been reached. Missing
+	 * packets are skipped once the packet following them is due.
+	 *
+	 * @param now Current time in nanoseconds.
+	 * @return A buffer holding the packet between its position and limit, valid
+	 *         until the next call to {@link #put}, or null if no packet is due.
+	 */
+	public ByteBuffer poll(long now) {
+		while (occupancy > 0) {
+			int index = playoutSeq & (CAPACITY - 1);
+
+			if (slotSeq[index] == playoutSeq) {
+				if (playoutTime(slotTimestamp[index]) > now) {
+					return null;
+				}
+
+				slotSeq[index] = -1;
+				occupancy--;
+				playoutSeq = (playoutSeq + 1) & 0xFFFF;
+				return slots[index];
+			}
+
+			// The packet is missing, wait for the next buffered one to become due
+			int next = nextBuffered();
+
+			if (playoutTime(slotTimestamp[next & (CAPACITY - 1)]) > now) {
+				return null;
+			}
+
+			skip((short) (next - playoutSeq));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the time at which {@link #poll} will next return a packet.
+	 *
+	 * @return Time in nanoseconds, or Long.MAX_VALUE if the buffer is empty.
+	 */
+	public long nextPlayoutTime() {
+		if (occupancy == 0) {
+			return Long.MAX_VALUE;
+		}
+
+		return playoutTime(slotTimestamp[nextBuffered() & (CAPACITY - 1)]);
+	}
+
+	/**
+	 * Drops all buffered packets and forgets the timing reference. The next packet
+	 * put into the buffer starts a new stream.
+	 */
+	public void flush() {
+		for (int i = 0; i < CAPACITY; i++) {
+			slotSeq[i] = -1;
+		}
+
+		occupancy = 0;
+		started = false;
+	}
+
+	public long getTargetDelay() {
+		return targetDelay;
+	}
+
+	public long getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * Returns the drift of the sender's clock against ours in parts per million,
+	 * positive when the sender's clock is slower.
+	 */
+	public double getDriftPpm() {
+		return driftEstimator.getDriftPpm();
+	}
+
+	public int getOccupancy() {
+		return occupancy;
+	}
+
+	/**
+	 * Returns the media time currently buffered in nanoseconds.
+	 */
+	public long getBufferedDuration() {
+		return occupancy * packetDuration;
+	}
+
+	public long getLatePackets() {
+		return latePackets;
+	}
+
+	public long getDuplicatePackets() {
+		return duplicatePackets;
+	}
+
+	public long getReorderedPackets() {
+		return reorderedPackets;
+	}
+
+	public long getLostPackets() {
+		return lostPackets;
+	}
+
+	public long getDiscardedPackets() {
+		return discardedPackets;
+	}
+
+	/**
+	 * Updates the jitter estimate and the target delay from the transit time of a
+	 * newly arrived packet.
+	 */
+	private void updateDelay(long transit) {
+		long d = Math.abs(transit - lastTransit);
+		lastTransit = transit;
+		jitter += (d - jitter) / 16;
+
+		// A packet earlier than any before moves the reference
+		if (transit < baseTransit) {
+			baseTransit = transit;
+		}
+
+		long desired = Math.max(minDelay, Math.min(maxDelay, JITTER_MULTIPLIER * jitter));
+
+		if (desired > targetDelay) {
+			targetDelay = desired;
+		} else {
+			targetDelay -= (targetDelay - desired) / SHRINK_RATE;
+		}
+	}
+
+	private long playoutTime(long timestamp) {
+		return toNanos(timestamp) + baseTransit + (long) driftOffset + targetDelay;
+	}
+
+	private long toNanos(long timestamp) {
+		// Split the conversion so long running streams do not overflow
+		return (timestamp / clockRate) * 1000000000L + (timestamp % clockRate) * 1000000000L / clockRate;
+	}
+
+	private long extendTimestamp(long timestamp) {
+		lastTimestamp += (int) (timestamp - lastTimestamp);
+		return lastTimestamp;
+	}
+
+	private int nextBuffered() {
+		int seq = playoutSeq;
+
+		while (slotSeq[seq & (CAPACITY - 1)] != seq) {
+			seq = (seq + 1) & 0xFFFF;
+		}
+
+		return seq;
+	}
+
+	private void skip(int count) {
+		for (int i = 0; i < count; i++) {
+			int index = playoutSeq & (CAPACITY - 1);
+
+			if (slotSeq[index] == playoutSeq) {
+				// Buffered, but pushed out before its playout time
+				slotSeq[index] = -1;
+				occupancy--;
+				latePackets++;
+			} else {
+				lostPackets++;
+			}
+
+			playoutSeq = (playoutSeq + 1) & 0xFFFF;
+		}
+	}
+}
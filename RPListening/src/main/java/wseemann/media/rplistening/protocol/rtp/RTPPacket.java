@@ -19,16 +19,173 @@
 
 package wseemann.media.rplistening.protocol.rtp;
 
+import java.nio.ByteBuffer;
+
 /**
  * This class encapsulates all the necessary parameters of a RTP Packet that
  * needs to be handed to the Application when a RTP Packet is received.
+ *
+ * The packet is a reusable view over a buffer holding the raw datagram. Every
+ * field is read in place from the buffer, so wrapping and parsing a packet
+ * does not allocate. The view is only valid until the underlying buffer is
+ * reused.
+ *
+ * <pre>
+ *  0                   1                   2                   3
+ *  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |V=2|P|X|  CC   |M|     PT      |       sequence number         |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                           timestamp                           |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |           synchronization source (SSRC) identifier            |
+ * +=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+
+ * |            contributing source (CSRC) identifiers             |
+ * |                             ....                              |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * </pre>
  */
 public class RTPPacket {
+
+	/**
+	 * Size of the fixed RTP header
+	 */
+	public static final int FIXED_HEADER_SIZE = 12;
+
+	/**
+	 * Buffer holding the packet
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Offset of the first byte of the packet in the buffer
+	 */
+	private int offset;
+
+	/**
+	 * Length of the packet in bytes
+	 */
+	private int length;
+
+	/**
+	 * Offset of the payload relative to the start of the packet
+	 */
+	private int payloadOffset;
+
+	/**
+	 * Length of the payload, excluding any padding
+	 */
+	private int payloadLength;
+
+	/**
+	 * Wraps the bytes between the position and the limit of the buffer. The
+	 * buffer position and limit are left untouched.
+	 *
+	 * @param buffer Buffer holding a single RTP packet.
+	 * @return True if the packet is long enough to hold the header, CSRC list,
+	 *         header extension and padding it announces, false otherwise.
+	 */
+	public boolean wrap(ByteBuffer buffer) {
+		return wrap(buffer, buffer.position(), buffer.remaining());
+	}
+
+	/**
+	 * Wraps a region of the buffer.
+	 *
+	 * @param buffer Buffer holding the packet.
+	 * @param offset Offset of the first byte of the packet.
+	 * @param length Length of the packet in bytes.
+	 * @return True if the packet is long enough to hold the header, CSRC list,
+	 *         header extension and padding it announces, false otherwise.
+	 */
+	public boolean wrap(ByteBuffer buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+		this.payloadOffset = 0;
+		this.payloadLength = 0;
+
+		if (length < FIXED_HEADER_SIZE) {
+			return false;
+		}
+
+		int headerLength = FIXED_HEADER_SIZE + getCSRCCount() * 4;
+
+		if (hasExtension()) {
+			if (length < headerLength + 4) {
+				return false;
+			}
+
+			headerLength += 4 + getExtensionLength();
+		}
+
+		int paddingLength = hasPadding() ? buffer.get(offset + length - 1) & 0xff : 0;
+
+		if (length < headerLength + paddingLength) {
+			return false;
+		}
+
+		payloadOffset = headerLength;
+		payloadLength = length - headerLength - paddingLength;
+
+		return true;
+	}
+
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * The version of RTP, always 2.
+	 */
+	public int getVersion() {
+		return (buffer.get(offset) & 0xC0) >> 6;
+	}
+
+	/**
+	 * If set, the packet contains padding octets at the end which are not part of
+	 * the payload.
+	 */
+	public boolean hasPadding() {
+		return (buffer.get(offset) & 0x20) != 0;
+	}
+
+	/**
+	 * If set, the fixed header is followed by exactly one header extension.
+	 */
+	public boolean hasExtension() {
+		return (buffer.get(offset) & 0x10) != 0;
+	}
+
 	/**
 	 * The CSRC count contains the number of CSRC identifiers that follow the fixed
 	 * header.
 	 */
-	private long csrcCount;
+	public int getCSRCCount() {
+		return buffer.get(offset) & 0x0F;
+	}
+
+	/**
+	 * The interpretation of the marker is defined by a profile.
+	 */
+	public boolean isMarker() {
+		return (buffer.get(offset + 1) & 0x80) != 0;
+	}
+
+	/**
+	 * Identifies the format of the RTP payload.
+	 */
+	public int getPayloadType() {
+		return buffer.get(offset + 1) & 0x7F;
+	}
 
 	/**
 	 * The sequence number increments by one for each RTP data packet sent, and may
@@ -38,43 +195,71 @@ public class RTPPacket {
 	 * itself does not encrypt, because the packets may flow through a translator
 	 * that does.
 	 */
-	private long sequenceNumber;
+	public int getSequenceNumber() {
+		return buffer.getShort(offset + 2) & 0xFFFF;
+	}
 
 	/**
 	 * The timestamp reflects the sampling instant of the first octet in the RTP
 	 * data packet.
 	 */
-	private long timestamp;
+	public long getTimestamp() {
+		return buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+	}
 
 	/**
 	 * The SSRC field identifies the synchronization source. This identifier is
 	 * chosen randomly, with the intent that no two synchronization sources within
 	 * the same RTP session will have the same SSRC identifier.
 	 */
-	private long ssrc;
+	public long getSSRC() {
+		return buffer.getInt(offset + 8) & 0xFFFFFFFFL;
+	}
 
 	/**
-	 * The actual payload contained in a RTP Packet
+	 * Returns an entry of the CSRC list.
+	 *
+	 * @param index Index of the entry, less than {@link #getCSRCCount()}.
+	 * @return The contributing source identifier.
 	 */
-	private byte [] data;
+	public long getCSRC(int index) {
+		return buffer.getInt(offset + FIXED_HEADER_SIZE + index * 4) & 0xFFFFFFFFL;
+	}
 
-	public void setCSRCCount(long csrcCount) {
-		this.csrcCount = csrcCount;
+	/**
+	 * Offset of the header extension relative to the start of the packet, this
+	 * is where the 16 bit profile defined field is.
+	 */
+	public int getExtensionOffset() {
+		return FIXED_HEADER_SIZE + getCSRCCount() * 4;
 	}
 
-	public void setSequenceNumber(long sequenceNumber) {
-		this.sequenceNumber = sequenceNumber;
+	/**
+	 * The profile defined field of the header extension.
+	 */
+	public int getExtensionProfile() {
+		return buffer.getShort(offset + getExtensionOffset()) & 0xFFFF;
 	}
 
-	public void setTimestamp(long timestamp) {
-		this.timestamp = timestamp;
+	/**
+	 * Length of the header extension data in bytes, excluding the four byte
+	 * extension header.
+	 */
+	public int getExtensionLength() {
+		return (buffer.getShort(offset + getExtensionOffset() + 2) & 0xFFFF) * 4;
 	}
 
-	public void setSSRC(long ssrc) {
-		this.ssrc = ssrc;
+	/**
+	 * Offset of the payload relative to the start of the packet.
+	 */
+	public int getPayloadOffset() {
+		return payloadOffset;
 	}
 
-	public void setData(byte data[]) {
-		this.data = data;
+	/**
+	 * Length of the payload, excluding any padding.
+	 */
+	public int getPayloadLength() {
+		return payloadLength;
 	}
-}
\ No newline at end of file
+}
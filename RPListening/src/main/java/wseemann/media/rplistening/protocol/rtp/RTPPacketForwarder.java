@@ -0,0 +1,191 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.rtp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import wseemann.media.rplistening.protocol.utils.SocketTuning;
+import wseemann.media.rplistening.utils.Constants;
+import wseemann.media.rplistening.utils.Log;
+
+/**
+ * Forwards received RTP packets to the local audio decoder. Packets are sent
+ * synchronously on the calling (receiver) thread through a single
+ * {@link DatagramChannel}, so no thread or packet object is created per
+ * datagram and packets leave in the order they were handed in. The external
+ * decoder cannot be told that the stream restarted, so after a restart the
+ * sequence numbers, timestamps and SSRC are rewritten to continue the stream
+ * it already plays.
+ */
+public class RTPPacketForwarder implements RTPPacketSink {
+
+	private static final String TAG = "RTPPacketForwarder";
+
+	/**
+	 * Channel the packets are sent from
+	 */
+	private final DatagramChannel channel;
+
+	/**
+	 * Address of the audio decoder
+	 */
+	private final InetSocketAddress decoderAddress;
+
+	/**
+	 * Number of packets handed to the decoder
+	 */
+	private long forwardedPackets;
+
+	/**
+	 * Number of packets that could not be sent
+	 */
+	private long droppedPackets;
+
+	/**
+	 * True once a packet was forwarded
+	 */
+	private boolean started;
+
+	/**
+	 * True when the next packet starts a new stream
+	 */
+	private boolean restarted;
+
+	/**
+	 * Added to the sequence number of the packets of the current stream
+	 */
+	private short seqOffset;
+
+	/**
+	 * Added to the timestamp of the packets of the current stream
+	 */
+	private int timestampOffset;
+
+	/**
+	 * SSRC the decoder knows the stream by
+	 */
+	private int ssrc;
+
+	/**
+	 * Sequence number and timestamp of the last packet forwarded, after rewriting
+	 */
+	private short lastSeq;
+	private int lastTimestamp;
+
+	/**
+	 * Timestamp step between the last two packets forwarded
+	 */
+	private int lastStep;
+
+	/**
+	 * Opens the forwarding channel.
+	 *
+	 * @param loopbackAddress Address the audio decoder listens on.
+	 * @param localPort       Local port the packets are sent from.
+	 * @param decoderPort     Port the audio decoder listens on.
+	 * @throws IOException If the channel could not be opened or bound.
+	 */
+	public RTPPacketForwarder(InetAddress loopbackAddress, int localPort, int decoderPort) throws IOException {
+		decoderAddress = new InetSocketAddress(loopbackAddress, decoderPort);
+		channel = DatagramChannel.open();
+		SocketTuning.configure(channel, 0, Constants.LOOPBACK_SEND_BUFFER_SIZE);
+		channel.bind(new InetSocketAddress(localPort));
+	}
+
+	/**
+	 * Sends the remaining bytes of the buffer to the decoder. The buffer position
+	 * is advanced to its limit.
+	 *
+	 * @param packet Buffer holding a single RTP packet between its position and
+	 *               limit.
+	 */
+	@Override
+	public void forward(ByteBuffer packet) {
+		rewriteHeader(packet);
+
+		try {
+			channel.send(packet, decoderAddress);
+			forwardedPackets++;
+		} catch (IOException ex) {
+			// The decoder may not be listening yet, drop the packet
+			droppedPackets++;
+			Log.d(TAG, ex.getMessage());
+		}
+	}
+
+	@Override
+	public void reset() {
+		restarted = started;
+	}
+
+	/**
+	 * Rewrites the header of a packet so it continues the stream the decoder
+	 * knows. The offsets are zero until the first restart.
+	 */
+	private void rewriteHeader(ByteBuffer packet) {
+		int position = packet.position();
+		short seq = packet.getShort(position + 2);
+		int timestamp = packet.getInt(position + 4);
+
+		if (!started) {
+			started = true;
+			ssrc = packet.getInt(position + 8);
+			lastSeq = seq;
+			lastTimestamp = timestamp;
+		} else if (restarted) {
+			restarted = false;
+			seqOffset = (short) (lastSeq + 1 - seq);
+			timestampOffset = lastTimestamp + lastStep - timestamp;
+		}
+
+		seq += seqOffset;
+		timestamp += timestampOffset;
+
+		if ((short) (seq - lastSeq) == 1) {
+			lastStep = timestamp - lastTimestamp;
+		}
+
+		if ((short) (seq - lastSeq) > 0) {
+			lastSeq = seq;
+			lastTimestamp = timestamp;
+		}
+
+		packet.putShort(position + 2, seq);
+		packet.putInt(position + 4, timestamp);
+		packet.putInt(position + 8, ssrc);
+	}
+
+	public long getForwardedPackets() {
+		return forwardedPackets;
+	}
+
+	public long getDroppedPackets() {
+		return droppedPackets;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
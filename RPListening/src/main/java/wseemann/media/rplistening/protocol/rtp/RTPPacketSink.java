@@ -0,0 +1,47 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.rtp;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the RTP packets released by the jitter buffer, in playout order.
+ * Packets are handed over on the session's event loop and must be consumed
+ * without blocking.
+ */
+public interface RTPPacketSink extends Closeable {
+
+	/**
+	 * Consumes a packet. The buffer position is advanced to its limit.
+	 *
+	 * @param packet Buffer holding a single RTP packet between its position and
+	 *               limit, valid only during the call.
+	 */
+	void forward(ByteBuffer packet);
+
+	/**
+	 * Called when the sender restarted the stream, before the first packet of
+	 * the new stream is forwarded. State carried over from the old stream must be
+	 * dropped. Does nothing by default.
+	 */
+	default void reset() {
+	}
+}
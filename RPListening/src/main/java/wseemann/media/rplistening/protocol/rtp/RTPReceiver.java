@@ -0,0 +1,445 @@
+package wseemann.media.rplistening.protocol.rtp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import wseemann.media.rplistening.protocol.PrivateListeningSession;
+import wseemann.media.rplistening.protocol.Source;
+import wseemann.media.rplistening.protocol.engine.ChannelHandler;
+import wseemann.media.rplistening.protocol.engine.EventLoop;
+import wseemann.media.rplistening.protocol.engine.ScheduledTask;
+import wseemann.media.rplistening.protocol.rtcp.RTCPParser;
+import wseemann.media.rplistening.protocol.utils.SessionClock;
+import wseemann.media.rplistening.protocol.utils.SocketTuning;
+import wseemann.media.rplistening.protocol.utils.UdpDropCounters;
+import wseemann.media.rplistening.utils.Constants;
+import wseemann.media.rplistening.utils.Log;
+
+/**
+ * Receives the RTP packets of a session on its event loop and hands them
+ * through the jitter buffer to the audio decoder.
+ */
+public class RTPReceiver implements ChannelHandler {
+
+	private static final String TAG = "RTPReceiver";
+	
+	/**
+	 * Size of the receive buffer, large enough for any packet within the MTU
+	 */
+	private static final int RECEIVE_BUFFER_SIZE = 2048;
+
+	private boolean startedRTCPSender = false;
+
+	/**
+	 * Session the received packets belong to
+	 */
+	private final PrivateListeningSession session;
+
+	/**
+	 * Multicast Port for RTP Packets
+	 */
+	private final int m_mcastPort;
+
+	/**
+	 * Sender Address for RTP Packets
+	 */
+	private final InetAddress m_InetAddress;
+
+	/**
+	 * Channel RTP packets are received on
+	 */
+	private final DatagramChannel rtpChannel;
+
+	/**
+	 * Event loop the receiver runs on
+	 */
+	private final EventLoop eventLoop;
+
+	/**
+	 * Time source of the session
+	 */
+	private final SessionClock clock;
+
+	/**
+	 * Reusable receive buffer
+	 */
+	private final ByteBuffer buf = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+
+	/**
+	 * Pooled receive buffers when datagrams are received in batches, null when
+	 * they are received one at a time
+	 */
+	private final DatagramBatch batch = Constants.RTP_RECEIVE_BATCH_SIZE > 1
+			? new DatagramBatch(Constants.RTP_RECEIVE_BATCH_SIZE, RECEIVE_BUFFER_SIZE)
+			: null;
+
+	/**
+	 * Forwards buffered packets once they are due
+	 */
+	private final ScheduledTask playoutTask = new ScheduledTask() {
+		@Override
+		public void run() {
+			playout();
+		}
+	};
+
+	/**
+	 * Reorders and smooths packets before they are forwarded
+	 */
+	private final JitterBuffer jitterBuffer = new JitterBuffer(Constants.RTP_CLOCK_RATE,
+			Constants.JITTER_BUFFER_MIN_DELAY_MS, Constants.JITTER_BUFFER_INITIAL_DELAY_MS,
+			Constants.JITTER_BUFFER_MAX_DELAY_MS);
+
+	/**
+	 * View over the packet currently held in the receive buffer
+	 */
+	private final RTPPacket rtpPacket = new RTPPacket();
+
+	/**
+	 * Decodes the RTCP packets the device sends to the RTP port
+	 */
+	private final RTCPParser rtcpParser;
+
+	/**
+	 * Source of the last received packet
+	 */
+	private Source currentSource;
+
+	/**
+	 * Number of stream restarts seen
+	 */
+	private long streamRestarts;
+
+	/**
+	 * Number of datagrams that were neither valid RTP nor RTCP, read from the
+	 * control loop for reporting
+	 */
+	private volatile long badPackets;
+
+	/**
+	 * Takes the packets released by the jitter buffer, the audio decoder or the
+	 * forwarder to it
+	 */
+	private final RTPPacketSink packetSink;
+
+	/**
+	 * Constructor for the class. Takes in a TCP/IP Address and the sink packets
+	 * are played out to. It opens the RTP channel on the default RTP port, or on
+	 * the next free port of the RTP port range, or any free port if the range is
+	 * taken. The sink is closed with the receiver.
+	 *
+	 * @param session           Session the received packets belong to.
+	 * @param eventLoop         Event loop the receiver runs on.
+	 * @param MulticastAddress  Dotted representation of the Multicast address.
+	 * @param packetSink        Takes the packets in playout order.
+	 * @throws IOException If a channel could not be opened.
+	 *
+	 */
+
+	public RTPReceiver(PrivateListeningSession session, EventLoop eventLoop, InetAddress MulticastAddress,
+			RTPPacketSink packetSink) throws IOException {
+		this.session = session;
+		this.eventLoop = eventLoop;
+		this.clock = session.getClock();
+		this.rtcpParser = new RTCPParser(session);
+		m_InetAddress = MulticastAddress;
+
+		rtpChannel = DatagramChannel.open();
+		SocketTuning.configure(rtpChannel, Constants.RTP_RECEIVE_BUFFER_SIZE, Constants.RTP_SEND_BUFFER_SIZE);
+		SocketTuning.bind(rtpChannel, Constants.RTP_PORT, Constants.RTP_PORT_RANGE);
+
+		m_mcastPort = ((InetSocketAddress) rtpChannel.getLocalAddress()).getPort();
+		this.packetSink = packetSink;
+
+		Log.d(TAG, "RTP Session SSRC: " + Long.toHexString(session.SSRC));
+	}
+
+	/**
+	 * Returns the local port RTP packets are received on.
+	 */
+	public int getLocalPort() {
+		return m_mcastPort;
+	}
+
+	/**
+	 * Starts receiving on the session's event loop.
+	 */
+	public void start() {
+		Log.d(TAG, "RTP Receiver started ");
+		Log.d(TAG, "RTP Group: " + m_InetAddress + "/" + m_mcastPort);
+
+		eventLoop.register(rtpChannel, this);
+	}
+
+	/**
+	 * Stops receiving and closes the channels.
+	 */
+	public void stop() {
+		eventLoop.execute(() -> {
+			eventLoop.cancel(playoutTask);
+			close();
+		});
+	}
+
+	/**
+	 * Receives all pending RTP packets into reusable direct buffers, passes them
+	 * through the jitter buffer to the audio decoder and updates the statistics
+	 * of the sending source. RTCP packets arriving on the same channel are handed
+	 * to the RTCP parser. Header fields are read in place, so no per packet
+	 * allocation is made. With batching enabled the queued datagrams are drained
+	 * into the pooled buffers first and processed afterwards, otherwise each one
+	 * is processed as it is received.
+	 */
+	@Override
+	public void onReadable() throws IOException {
+		if (batch != null) {
+			int received;
+
+			do {
+				received = batch.receive(rtpChannel, clock);
+
+				for (int i = 0; i < received; i++) {
+					processDatagram(batch.buffer(i), batch.sender(i), batch.arrivalTime(i));
+				}
+			} while (received == batch.capacity());
+		} else {
+			SocketAddress sender;
+
+			while ((sender = rtpChannel.receive(buf)) != null) {
+				buf.flip();
+				processDatagram(buf, sender, clock.nanoTime());
+				buf.clear();
+			}
+		}
+
+		playout();
+	}
+
+	/**
+	 * Hands a received datagram to the RTCP parser or the RTP path.
+	 */
+	private void processDatagram(ByteBuffer datagram, SocketAddress sender, long arrivalTime) {
+		// RTCP shares the port, tell the two apart by packet type
+		if (RTCPParser.isRTCP(datagram)) {
+			rtcpParser.parse(datagram, arrivalTime);
+		} else {
+			processPacket(datagram, sender, arrivalTime);
+		}
+	}
+
+	/**
+	 * Forwards the packets that are due and schedules the next playout.
+	 */
+	private void playout() {
+		ByteBuffer packet;
+		long now = clock.nanoTime();
+
+		while ((packet = jitterBuffer.poll(now)) != null) {
+			recordLatency(packet, now);
+			packetSink.forward(packet);
+		}
+
+		long playoutTime = jitterBuffer.nextPlayoutTime();
+
+		if (playoutTime == Long.MAX_VALUE) {
+			eventLoop.cancel(playoutTask);
+		} else {
+			eventLoop.schedule(playoutTask, playoutTime - now);
+		}
+	}
+
+	/**
+	 * Estimates the latency from capture on the device to playout of a packet.
+	 * The last Sender Report ties the device clock to ours: the packet was
+	 * captured as much media time after the report as its timestamp is past the
+	 * report's, and the report took the one way delay to reach us. This needs no
+	 * synchronized wall clocks. Until a round trip time is known the one way
+	 * delay counts as zero, so the estimate is a lower bound.
+	 */
+	private void recordLatency(ByteBuffer packet, long now) {
+		Source source = currentSource;
+
+		if (source == null || !source.hasSenderReport()
+				|| (packet.getInt(packet.position() + 8) & 0xFFFFFFFFL) != source.getSsrc()) {
+			return;
+		}
+
+		long timestamp = packet.getInt(packet.position() + 4) & 0xFFFFFFFFL;
+		long mediaTime = (long) (int) (timestamp - source.getSrRtpTimestamp()) * 1000000L / Constants.RTP_CLOCK_RATE;
+		long sinceReport = (now - source.getSrArrivalTime()) / 1000;
+
+		session.getEndToEndLatency().add(sinceReport - mediaTime + session.getOneWayDelay());
+	}
+
+	/**
+	 * Handles a restart of the stream: a new SSRC, a sequence number jump the
+	 * old stream cannot explain, or a timing discontinuity such as a stall. The
+	 * packets still buffered are dropped and the sink is reset, so the new stream plays
+	 * at once with a fresh timing reference instead of waiting for stale state
+	 * to settle. The session itself is kept.
+	 */
+	private void restartStream(Source source) {
+		Log.d(TAG, "Stream restarted, SSRC = 0x" + Long.toHexString(source.getSsrc()));
+
+		jitterBuffer.flush();
+		eventLoop.cancel(playoutTask);
+		packetSink.reset();
+		streamRestarts++;
+	}
+
+	/**
+	 * Returns the number of RTP datagrams the kernel dropped because the receive
+	 * buffer was full, or -1 if the platform does not report it. Reads the
+	 * kernel's socket table, so it is meant for periodic reporting.
+	 */
+	public long getKernelDrops() {
+		return UdpDropCounters.getDrops(m_mcastPort);
+	}
+
+	/**
+	 * Returns the number of datagrams dropped as neither valid RTP nor RTCP.
+	 */
+	public long getBadPackets() {
+		return badPackets;
+	}
+
+	/**
+	 * Returns the number of times the sender restarted the stream.
+	 */
+	public long getStreamRestarts() {
+		return streamRestarts;
+	}
+
+	/**
+	 * Closes the RTP channel and the packet sink.
+	 */
+	public void close() {
+		try {
+			rtpChannel.close();
+			packetSink.close();
+		} catch (IOException ex) {
+			Log.d(TAG, ex.getMessage());
+		}
+	}
+
+	/**
+	 * Validates a received packet, stores it in the jitter buffer and updates the
+	 * statistics of the sending source.
+	 *
+	 * @param buf         Buffer holding the packet between its position and limit.
+	 * @param sender      Address the packet was received from.
+	 * @param arrivalTime Arrival time of the packet in nanoseconds.
+	 */
+	private void processPacket(ByteBuffer buf, SocketAddress sender, long arrivalTime) {
+		if (ValidateRTPPacketHeader(buf)) {
+			long SSRC = rtpPacket.getSSRC();
+			long TimeStamp = rtpPacket.getTimestamp();
+			int SeqNo = rtpPacket.getSequenceNumber();
+			int PT = rtpPacket.getPayloadType();
+
+			if (!Log.suppressLogs) {
+				Log.d(TAG, "RTP (");
+				Log.d(TAG, "ssrc=0x" + Long.toHexString(SSRC) + "\tts=" + TimeStamp + "\tseq=" + SeqNo + "\tpt=" + PT);
+				Log.d(TAG, ")");
+			}
+
+			startRTCPRSender();
+
+			// Get the source corresponding to this SSRC
+			Source RTPSource = session.GetSource(SSRC);
+
+			// Check the packet continues the stream
+			int seqStatus = RTPSource.updateSeq(SeqNo, TimeStamp, arrivalTime);
+
+			if (seqStatus == Source.SEQ_INVALID) {
+				// Dropped, the next packet tells whether the stream jumped
+				return;
+			}
+
+			if (seqStatus == Source.SEQ_RESTART || seqStatus == Source.SEQ_DISCONTINUITY
+					|| (currentSource != null && currentSource != RTPSource)) {
+				restartStream(RTPSource);
+			}
+
+			currentSource = RTPSource;
+			jitterBuffer.put(rtpPacket, arrivalTime);
+
+			// Set the Active Sender Property to true
+			RTPSource.setActiveSender(true);
+
+			// Set the time of last RTP Arrival
+			RTPSource.setTimeOfLastRTPArrival(arrivalTime / 1000000);
+
+			// Update the interarrival jitter
+			RTPSource.updateJitter(TimeStamp, arrivalTime);
+
+			// Increment the total number of RTP Packets Received
+			RTPSource.setNoOfRTPPacketsRcvd(RTPSource.getNoOfRTPPacketsRcvd() + 1);
+		} else {
+			badPackets++;
+
+			if (!Log.suppressLogs) {
+				Log.d(TAG, "Bad RTP Packet received from " + sender + ", length " + buf.remaining());
+			}
+		}
+	}
+
+	/**
+	 * Returns the jitter buffer feeding the audio decoder.
+	 */
+	public JitterBuffer getJitterBuffer() {
+		return jitterBuffer;
+	}
+
+	private void startRTCPRSender() {
+		if (!startedRTCPSender) {
+			startedRTCPSender = true;
+			// Starts the RTCP Sender on the control loop
+			session.m_RTCPSender.start(rtpChannel);
+		}
+	}
+
+	/**
+	 * Validates RTP Packet. Returns true or false corresponding to the test
+	 * results. On return the receiver's packet view wraps the given buffer.
+	 *
+	 * @param packet The RTP Packet to be validated.
+	 * @return True if validation was successful, False otherwise.
+	 */
+	public boolean ValidateRTPPacketHeader(ByteBuffer packet) {
+		boolean versionValid;
+		boolean payloadTypeValid;
+
+		// The packet must hold the header, CSRC list, extension and padding it announces
+		if (!rtpPacket.wrap(packet))
+			return false;
+
+		// +-+-+-+-+-+-+-+-+
+		// |V=2|P|X| CC |
+		// +-+-+-+-+-+-+-+-+
+
+		// Version MUST be 2
+		if (rtpPacket.getVersion() == 2)
+			versionValid = true;
+		else
+			versionValid = false;
+
+		// +-+-+-+-+-+-+-+-+
+		// |M| PT |
+		// +-+-+-+-+-+-+-+-+
+		// 0 1 0 1 1 0 0 0
+
+		// Payload Type must be the same as the session's
+		if (rtpPacket.getPayloadType() == session.getPayloadType())
+			payloadTypeValid = true;
+		else
+			payloadTypeValid = false;
+
+		return (versionValid && payloadTypeValid);
+
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.utils;
+
+/**
+ * Estimates how fast the sender's media clock runs against the local monotonic
+ * clock. Each packet gives a transit time, its arrival time minus its media
+ * time; when the clocks drift apart the transit time follows a slope under the
+ * network jitter. The jitter only ever adds delay, so the smallest transit time
+ * of each window is taken, and a least squares line through the minima of the
+ * recent windows gives the drift. Adding a packet is constant time and
+ * allocates nothing.
+ *
+ * The estimator is not thread safe, it is meant to be driven from the session's
+ * event loop only.
+ */
+public class DriftEstimator {
+
+	/**
+	 * Fewest windows a drift is estimated from
+	 */
+	private static final int MIN_WINDOWS = 3;
+
+	/**
+	 * Length of a window in nanoseconds
+	 */
+	private final long windowLength;
+
+	/**
+	 * Arrival time and smallest transit time of the recent windows, relative to
+	 * the first packet, in nanoseconds
+	 */
+	private final double[] windowTime;
+	private final double[] windowTransit;
+
+	/**
+	 * Number of windows held, at most the ring size
+	 */
+	private int count;
+
+	/**
+	 * Slot the next window is written to
+	 */
+	private int next;
+
+	private boolean started;
+
+	/**
+	 * Arrival time and transit time of the first packet, the origin of the
+	 * windows
+	 */
+	private long originTime;
+	private long originTransit;
+
+	/**
+	 * Start and smallest transit time of the open window
+	 */
+	private long windowStart;
+	private long windowMinTransit;
+
+	/**
+	 * Drift in nanoseconds of transit time gained per nanosecond
+	 */
+	private double drift;
+
+	/**
+	 * Creates an estimator.
+	 *
+	 * @param windowMs Length of a window in milliseconds.
+	 * @param windows  Number of recent windows the drift is fitted over.
+	 */
+	public DriftEstimator(int windowMs, int windows) {
+		this.windowLength = windowMs * 1000000L;
+		this.windowTime = new double[windows];
+		this.windowTransit = new double[windows];
+	}
+
+	/**
+	 * Adds a packet.
+	 *
+	 * @param arrivalTime Local arrival time of the packet in nanoseconds.
+	 * @param mediaTime   Media time of the packet, its unwrapped RTP timestamp in
+	 *                    nanoseconds.
+	 */
+	public void add(long arrivalTime, long mediaTime) {
+		long transit = arrivalTime - mediaTime;
+
+		if (!started) {
+			started = true;
+			originTime = arrivalTime;
+			originTransit = transit;
+			windowStart = arrivalTime;
+			windowMinTransit = transit;
+			return;
+		}
+
+		if (arrivalTime - windowStart >= windowLength) {
+			closeWindow();
+			windowStart = arrivalTime;
+			windowMinTransit = transit;
+		} else if (transit < windowMinTransit) {
+			windowMinTransit = transit;
+		}
+	}
+
+	/**
+	 * Returns the drift in nanoseconds of transit time gained per nanosecond.
+	 * Positive when the sender's clock runs slower than ours, so its packets fall
+	 * further behind, negative when it runs faster. Zero until enough windows
+	 * have been seen.
+	 */
+	public double getDrift() {
+		return drift;
+	}
+
+	/**
+	 * Returns the drift in parts per million.
+	 */
+	public double getDriftPpm() {
+		return drift * 1000000;
+	}
+
+	/**
+	 * Forgets all packets, for a new stream.
+	 */
+	public void reset() {
+		started = false;
+		count = 0;
+		next = 0;
+		drift = 0;
+	}
+
+	private void closeWindow() {
+		windowTime[next] = windowStart - originTime;
+		windowTransit[next] = windowMinTransit - originTransit;
+		next = (next + 1) % windowTime.length;
+
+		if (count < windowTime.length) {
+			count++;
+		}
+
+		if (count < MIN_WINDOWS) {
+			return;
+		}
+
+		double meanTime = 0;
+		double meanTransit = 0;
+
+		for (int i = 0; i < count; i++) {
+			meanTime += windowTime[i];
+			meanTransit += windowTransit[i];
+		}
+
+		meanTime /= count;
+		meanTransit /= count;
+
+		double covariance = 0;
+		double variance = 0;
+
+		for (int i = 0; i < count; i++) {
+			double dt = windowTime[i] - meanTime;
+			covariance += dt * (windowTransit[i] - meanTransit);
+			variance += dt * dt;
+		}
+
+		if (variance > 0) {
+			drift = covariance / variance;
+		}
+	}
+}
@@ -39,7 +39,7 @@ public class PacketUtils {
 	 * @param packetB The second packet.
 	 * @return The desired packet which is A concatenated with B.
 	 */
-	public synchronized static byte[] Append(byte[] packetA, byte[] packetB) {
+	public static byte[] Append(byte[] packetA, byte[] packetB) {
 		// Create a new array whose size is equal to sum of packets
 		// being added
 		byte packetAB[] = new byte[packetA.length + packetB.length];
@@ -61,7 +61,7 @@ public class PacketUtils {
 	 * @param intToConvert The signed integer which will be converted to Long.
 	 * @return The unsigned long representation of the signed int.
 	 */
-	public synchronized static long ConvertSignedIntToLong(int intToConvert) {
+	public static long ConvertSignedIntToLong(int intToConvert) {
 		int in = intToConvert;
 		Log.d(TAG, String.valueOf(in));
 
@@ -80,7 +80,7 @@ public class PacketUtils {
 	 * @param n     The desired number of bytes to convert the long to.
 	 * @return The desired byte array which is populated with the long value.
 	 */
-	public synchronized static byte[] LongToBytes(long ldata, int n) {
+	public static byte[] LongToBytes(long ldata, int n) {
 		byte [] buff = new byte[n];
 
 		for (int i = n - 1; i >= 0; i--) {
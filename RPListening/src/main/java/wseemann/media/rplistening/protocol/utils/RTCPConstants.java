@@ -38,6 +38,17 @@ public class RTCPConstants extends Object {
 	 * RTCP TYPES
 	 */
 
+	public static final int RTCP_SR = 200;
 	public static final int RTCP_RR = (int) 201;
+	public static final int RTCP_SDES = 202;
+	public static final int RTCP_BYE = 203;
 	public static final int RTCP_APP = (int) 204;
+	public static final int RTCP_XR = 207;
+
+	/**
+	 * EXTENDED REPORT BLOCK TYPES (RFC 3611)
+	 */
+
+	public static final int XR_RRTR = 4;
+	public static final int XR_DLRR = 5;
 }
\ No newline at end of file
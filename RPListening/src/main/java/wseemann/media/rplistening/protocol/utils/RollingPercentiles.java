@@ -0,0 +1,113 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.utils;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent samples of a measurement in a fixed ring and answers
+ * percentile queries over them. Adding a sample is constant time and
+ * allocates nothing; a query sorts a preallocated copy of the window, so it is
+ * meant for periodic reporting, not for every packet.
+ */
+public class RollingPercentiles {
+
+	private final long[] samples;
+	private final long[] sorted;
+
+	/**
+	 * Number of samples held, at most the window size
+	 */
+	private int count;
+
+	/**
+	 * Slot the next sample is written to
+	 */
+	private int next;
+
+	/**
+	 * Creates an empty window.
+	 *
+	 * @param windowSize Number of most recent samples the percentiles cover.
+	 */
+	public RollingPercentiles(int windowSize) {
+		samples = new long[windowSize];
+		sorted = new long[windowSize];
+	}
+
+	/**
+	 * Adds a sample, replacing the oldest one once the window is full.
+	 *
+	 * @param value The sample.
+	 */
+	public synchronized void add(long value) {
+		samples[next] = value;
+		next = (next + 1) % samples.length;
+
+		if (count < samples.length) {
+			count++;
+		}
+	}
+
+	/**
+	 * Returns the number of samples in the window.
+	 */
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns a percentile of the samples in the window, using the nearest rank
+	 * method.
+	 *
+	 * @param percentile Percentile between 0 and 100.
+	 * @return The sample at that rank, or 0 if the window is empty.
+	 */
+	public synchronized long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+
+		System.arraycopy(samples, 0, sorted, 0, count);
+		Arrays.sort(sorted, 0, count);
+
+		int rank = (int) Math.ceil(percentile / 100 * count);
+		return sorted[Math.max(0, Math.min(count - 1, rank - 1))];
+	}
+
+	/**
+	 * Drops all samples.
+	 */
+	public synchronized void clear() {
+		count = 0;
+		next = 0;
+	}
+
+	/**
+	 * Formats the 50th, 95th and 99th percentiles for logging.
+	 *
+	 * @param unit Unit appended to each value.
+	 * @return The summary.
+	 */
+	public String summary(String unit) {
+		return "p50=" + getPercentile(50) + unit + " p95=" + getPercentile(95) + unit + " p99=" + getPercentile(99)
+				+ unit + " (n=" + getCount() + ")";
+	}
+}
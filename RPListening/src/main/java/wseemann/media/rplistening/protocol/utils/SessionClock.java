@@ -0,0 +1,96 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.utils;
+
+/**
+ * Time source of a private listening session. The monotonic view is used for
+ * all timing and statistics, it is not affected by wall clock adjustments. The
+ * wall clock view is only meant for the NTP timestamps carried in RTCP, which
+ * are derived from a single wall clock reading taken when the clock is created
+ * plus the monotonic time since. They have the resolution of the monotonic
+ * clock and do not jump when the wall clock is stepped. Implementations must
+ * not allocate, so the clock can be read on every packet.
+ */
+public interface SessionClock {
+
+	/**
+	 * Seconds between the NTP epoch (1900) and the Unix epoch (1970).
+	 */
+	long NTP_EPOCH_OFFSET = 2208988800L;
+
+	/**
+	 * Returns the monotonic time.
+	 *
+	 * @return Nanoseconds since an arbitrary origin, never negative.
+	 */
+	long nanoTime();
+
+	/**
+	 * Returns the wall clock time.
+	 *
+	 * @return Milliseconds since the Unix epoch.
+	 */
+	long currentTimeMillis();
+
+	/**
+	 * Returns the NTP timestamp of monotonic time zero, read once from the wall
+	 * clock.
+	 *
+	 * @return NTP timestamp
+	 */
+	long ntpOrigin();
+
+	/**
+	 * Returns the current time as a 64 bit NTP timestamp, seconds since 1900 in
+	 * the upper 32 bits and the fraction of a second in the lower 32 bits.
+	 *
+	 * @return NTP timestamp
+	 */
+	default long ntpTime() {
+		return ntpTime(nanoTime());
+	}
+
+	/**
+	 * Converts a monotonic time, e.g. the arrival time of a packet, into a 64
+	 * bit NTP timestamp.
+	 *
+	 * @param nanoTime Monotonic time in nanoseconds.
+	 * @return NTP timestamp
+	 */
+	default long ntpTime(long nanoTime) {
+		long seconds = nanoTime / 1000000000L;
+		long fraction = ((nanoTime % 1000000000L) << 32) / 1000000000L;
+
+		return ntpOrigin() + (seconds << 32) + fraction;
+	}
+
+	/**
+	 * Converts a wall clock time into a 64 bit NTP timestamp.
+	 *
+	 * @param millis Milliseconds since the Unix epoch.
+	 * @return NTP timestamp
+	 */
+	static long toNtp(long millis) {
+		long seconds = millis / 1000 + NTP_EPOCH_OFFSET;
+		long fraction = ((millis % 1000) << 32) / 1000;
+
+		return (seconds << 32) | fraction;
+	}
+}
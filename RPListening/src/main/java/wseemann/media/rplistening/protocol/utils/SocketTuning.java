@@ -0,0 +1,110 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.utils;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+
+import wseemann.media.rplistening.utils.Constants;
+import wseemann.media.rplistening.utils.Log;
+
+/**
+ * Applies the configured socket options to the media channels. Large buffers
+ * let the kernel queue the packets that arrive while the event loop is held up
+ * by a GC pause or the scheduler instead of dropping them, and the traffic
+ * class marks the packets as audio for the network. An option the platform
+ * refuses is logged and skipped, the channel still works without it.
+ */
+public class SocketTuning {
+
+	private static final String TAG = "SocketTuning";
+
+	private SocketTuning() {
+
+	}
+
+	/**
+	 * Sets the buffer sizes, the traffic class and address reuse of a channel
+	 * that is not bound yet.
+	 *
+	 * @param channel       The channel.
+	 * @param receiveBuffer Requested receive buffer size in bytes, 0 for the
+	 *                      system default.
+	 * @param sendBuffer    Requested send buffer size in bytes, 0 for the system
+	 *                      default.
+	 */
+	public static void configure(DatagramChannel channel, int receiveBuffer, int sendBuffer) {
+		if (receiveBuffer > 0) {
+			setOption(channel, StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+		}
+
+		if (sendBuffer > 0) {
+			setOption(channel, StandardSocketOptions.SO_SNDBUF, sendBuffer);
+		}
+
+		if (Constants.AUDIO_IP_TOS != 0) {
+			setOption(channel, StandardSocketOptions.IP_TOS, Constants.AUDIO_IP_TOS);
+		}
+
+		setOption(channel, StandardSocketOptions.SO_REUSEADDR, Constants.SOCKET_REUSE_ADDRESS);
+
+		try {
+			// The kernel may grant less than requested, e.g. capped by net.core.rmem_max
+			Log.d(TAG, "Buffers: rcv=" + channel.getOption(StandardSocketOptions.SO_RCVBUF) + " snd="
+					+ channel.getOption(StandardSocketOptions.SO_SNDBUF));
+		} catch (IOException ex) {
+			Log.d(TAG, ex.getMessage());
+		}
+	}
+
+	/**
+	 * Binds a channel to the first free port of a range, or to any free port if
+	 * the whole range is taken.
+	 *
+	 * @param channel   The channel.
+	 * @param firstPort First port of the range.
+	 * @param ports     Number of ports in the range.
+	 * @throws IOException If the channel could not be bound.
+	 */
+	public static void bind(DatagramChannel channel, int firstPort, int ports) throws IOException {
+		for (int port = firstPort; port < firstPort + ports; port++) {
+			try {
+				channel.bind(new InetSocketAddress(port));
+				return;
+			} catch (BindException ex) {
+				// Taken, try the next one
+			}
+		}
+
+		channel.bind(new InetSocketAddress(0));
+	}
+
+	private static <T> void setOption(DatagramChannel channel, SocketOption<T> option, T value) {
+		try {
+			channel.setOption(option, value);
+		} catch (IOException | UnsupportedOperationException | IllegalArgumentException ex) {
+			Log.d(TAG, "Cannot set " + option.name() + ": " + ex.getMessage());
+		}
+	}
+}
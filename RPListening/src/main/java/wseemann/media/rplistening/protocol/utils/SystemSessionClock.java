@@ -0,0 +1,48 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.utils;
+
+/**
+ * Session clock backed by {@link System#nanoTime()} and
+ * {@link System#currentTimeMillis()}. The monotonic time starts at zero when
+ * the clock is created, the NTP timeline is anchored to the wall clock at the
+ * same moment.
+ */
+public class SystemSessionClock implements SessionClock {
+
+	private final long origin = System.nanoTime();
+
+	private final long ntpOrigin = SessionClock.toNtp(System.currentTimeMillis());
+
+	@Override
+	public long nanoTime() {
+		return System.nanoTime() - origin;
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public long ntpOrigin() {
+		return ntpOrigin;
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.utils;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Reads the per socket UDP counters the Linux kernel publishes in
+ * /proc/net/udp and /proc/net/udp6. The drop count is the number of datagrams
+ * the kernel discarded because the socket's receive buffer was full, packets
+ * the application never saw, so it tells whether the buffers are large enough.
+ * Sockets are matched by local port; sockets sharing a port are summed.
+ */
+public class UdpDropCounters {
+
+	private static final String[] TABLES = { "/proc/net/udp", "/proc/net/udp6" };
+
+	/**
+	 * Column of the local address and of the drop count
+	 */
+	private static final int LOCAL_ADDRESS_COLUMN = 1;
+	private static final int DROPS_COLUMN = 12;
+
+	private UdpDropCounters() {
+
+	}
+
+	/**
+	 * Returns the number of datagrams dropped by the kernel for the sockets
+	 * bound to a local port.
+	 *
+	 * @param localPort The port.
+	 * @return The drop count, or -1 if the counters are not available on this
+	 *         platform.
+	 */
+	public static long getDrops(int localPort) {
+		long drops = 0;
+		boolean available = false;
+
+		for (String table : TABLES) {
+			try (BufferedReader reader = new BufferedReader(new FileReader(table))) {
+				available = true;
+
+				// Skip the header
+				String line = reader.readLine();
+
+				while ((line = reader.readLine()) != null) {
+					String[] columns = line.trim().split("\\s+");
+
+					if (columns.length > DROPS_COLUMN && parsePort(columns[LOCAL_ADDRESS_COLUMN]) == localPort) {
+						drops += Long.parseLong(columns[DROPS_COLUMN]);
+					}
+				}
+			} catch (IOException | NumberFormatException ex) {
+				// Not Linux, or no IPv6
+			}
+		}
+
+		return available ? drops : -1;
+	}
+
+	/**
+	 * Parses the port of an address in the hex notation of the table, e.g.
+	 * 0100007F:1B3A.
+	 */
+	private static int parsePort(String address) {
+		int colon = address.lastIndexOf(':');
+		return colon < 0 ? -1 : Integer.parseInt(address.substring(colon + 1), 16);
+	}
+}
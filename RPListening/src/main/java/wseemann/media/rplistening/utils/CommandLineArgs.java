@@ -33,6 +33,9 @@ public class CommandLineArgs implements Runnable {
 	@Option(names = "-d", description = "Discover devices.")
     public boolean discoverDevices;
 
+	@Option(names = "-o", description = "Audio output: ffplay (default), java to decode in process and play through Java Sound, null to decode and discard, or a file path for raw PCM.")
+    public String audioOutput;
+
 	@Override
 	public void run() {
 		
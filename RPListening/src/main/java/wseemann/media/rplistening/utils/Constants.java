@@ -29,16 +29,39 @@ public class Constants {
 	public static int RTP_PORT = 6970;
 	public static int RTCP_PORT = 5150;
 	public static int RTP_PAYLOAD_TYPE = 97;
+	public static int DECODER_PORT = 5153;
+	public static int RTP_CLOCK_RATE = 48000;
+	public static int JITTER_BUFFER_MIN_DELAY_MS = 10;
+	public static int JITTER_BUFFER_INITIAL_DELAY_MS = 40;
+	public static int JITTER_BUFFER_MAX_DELAY_MS = 200;
+	public static int DECODER_LATENCY_MS = 150;
+	public static int DECODER_OUTPUT_BUFFER_SIZE = 16 * 1024;
+	public static int AUDIO_CHANNELS = 2;
+	public static int AUDIO_OUTPUT_BUFFER_MS = 40;
+	public static int VDLY_INITIAL_MS = 500;
+	public static int VDLY_MIN_MS = 50;
+	public static int VDLY_MAX_MS = 1000;
+	public static int VDLY_HYSTERESIS_MS = 20;
+	public static int CONNECT_TIMEOUT_MS = 10000;
+	public static int STREAM_RESTART_TRANSIT_JUMP_MS = 1000;
+	public static int RTP_RECEIVE_BATCH_SIZE = 16;
+	public static int RTP_PORT_RANGE = 16;
+	public static int RTP_RECEIVE_BUFFER_SIZE = 1024 * 1024;
+	public static int RTP_SEND_BUFFER_SIZE = 64 * 1024;
+	public static int LOOPBACK_SEND_BUFFER_SIZE = 256 * 1024;
+	public static int AUDIO_IP_TOS = 0xB8;
+	public static boolean SOCKET_REUSE_ADDRESS = false;
+	public static int [] MEDIA_THREAD_CPUS = {};
 	
 	public static String SDP_FILE = "v=0\n"
 			+ "o=- 0 0 IN IP4 127.0.0.1\n"
 			+ "s=-\n"
 			+ "c=IN IP4 127.0.0.1\n"
-			+ "m=audio 5153 RTP/AVP 97\n"
+			+ "m=audio <port> RTP/AVP 97\n"
 			+ "a=rtpmap:97 opus/48000/2";
 	
-	public static String FFPLAY_CMD = " | <ffplay>"
-			+ " -hide_banner -loglevel error -protocol_whitelist pipe,file,udp,rtp -vn -nodisp -nostats -i -";
+	public static String [] FFPLAY_ARGS = {"-hide_banner", "-loglevel", "error",
+			"-protocol_whitelist", "pipe,file,udp,rtp", "-vn", "-nodisp", "-nostats", "-i", "-"};
 	
 	public static String [] FFPLAY_PATH_CMD = {"bash", "-c", "which ffplay"};
 }
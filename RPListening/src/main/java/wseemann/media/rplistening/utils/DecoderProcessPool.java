@@ -0,0 +1,203 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Starts the ffplay decoders of the sessions. The ffplay binary is looked up
+ * once, and a standby decoder is kept running on a spare port so the next
+ * session gets one at once instead of waiting for the process to start; the
+ * standby is replaced in the background. Every decoder handed out is tracked
+ * until it is destroyed, and the ones still running when the JVM exits are
+ * stopped.
+ */
+public class DecoderProcessPool {
+
+	private static final String TAG = "DecoderProcessPool";
+
+	private static DecoderProcessPool instance;
+
+	private final ShellCommand shellCommand = new ShellCommand();
+
+	/**
+	 * Path of the ffplay binary, resolved once
+	 */
+	private final String ffplayPath;
+
+	/**
+	 * Starts standby decoders off the caller's thread
+	 */
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "DecoderProcessPool");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Decoder waiting for the next session, may be null
+	 */
+	private Process standby;
+
+	/**
+	 * All decoders started and not yet destroyed
+	 */
+	private final Set<Process> liveProcesses = new HashSet<>();
+
+	private DecoderProcessPool() {
+		ffplayPath = shellCommand.findFFmpeg();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(this::destroyAll, "DecoderProcessPoolShutdown"));
+	}
+
+	/**
+	 * Returns the pool shared by all sessions, creating it on first use.
+	 *
+	 * @return The shared pool.
+	 */
+	public static synchronized DecoderProcessPool getDefault() {
+		if (instance == null) {
+			instance = new DecoderProcessPool();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Starts a standby decoder in the background, if none is running.
+	 */
+	public void prewarm() {
+		executor.execute(this::replenish);
+	}
+
+	/**
+	 * Hands out a running decoder, the standby one if available, and starts a
+	 * new standby in the background.
+	 *
+	 * @return A decoder listening on its port.
+	 * @throws IOException If no decoder could be started.
+	 */
+	public Process acquire() throws IOException {
+		Process process;
+
+		synchronized (this) {
+			process = standby;
+			standby = null;
+		}
+
+		if (process == null || !process.isAlive()) {
+			if (process != null) {
+				process.destroy();
+			}
+
+			process = start();
+		}
+
+		prewarm();
+
+		return process;
+	}
+
+	/**
+	 * Destroys a decoder in the background, destroying waits up to a second
+	 * for the process to exit.
+	 *
+	 * @param process The decoder to destroy.
+	 */
+	public void destroy(Process process) {
+		executor.execute(process::destroy);
+	}
+
+	/**
+	 * Called by a decoder once it was destroyed.
+	 */
+	synchronized void onDestroyed(Process process) {
+		liveProcesses.remove(process);
+
+		if (standby == process) {
+			standby = null;
+		}
+	}
+
+	private void replenish() {
+		synchronized (this) {
+			if (standby != null && standby.isAlive()) {
+				return;
+			}
+		}
+
+		try {
+			Process process = start();
+			boolean kept;
+
+			synchronized (this) {
+				kept = standby == null;
+
+				if (kept) {
+					standby = process;
+				}
+			}
+
+			if (!kept) {
+				process.destroy();
+			}
+		} catch (IOException ex) {
+			Log.d(TAG, "Could not start a standby decoder: " + ex.getMessage());
+		}
+	}
+
+	private Process start() throws IOException {
+		int port = PortAllocator.reserveUdpPortPair(Constants.DECODER_PORT);
+		Process process;
+
+		try {
+			process = shellCommand.execute(ffplayPath, port);
+		} catch (IOException ex) {
+			PortAllocator.releaseUdpPortPair(port);
+			throw ex;
+		}
+
+		synchronized (this) {
+			liveProcesses.add(process);
+		}
+
+		Log.d(TAG, "Started decoder on port " + port);
+
+		return process;
+	}
+
+	private void destroyAll() {
+		List<Process> processes;
+
+		synchronized (this) {
+			processes = new ArrayList<>(liveProcesses);
+		}
+
+		for (Process process : processes) {
+			process.destroy();
+		}
+	}
+}
@@ -1,16 +1,93 @@
 package wseemann.media.rplistening.utils;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Debug log. Messages are queued and printed by a background thread, so a
+ * caller, the audio thread in particular, never waits on the console. When
+ * the queue is full messages are dropped and counted rather than blocking.
+ */
 public class Log {
 
 	public static boolean suppressLogs = false;
-	
+
+	/**
+	 * Largest number of messages waiting to be printed
+	 */
+	private static final int MAX_PENDING = 4096;
+
+	private static final Queue<String> pending = new ConcurrentLinkedQueue<>();
+
+	private static final AtomicInteger pendingCount = new AtomicInteger();
+
+	private static final AtomicInteger droppedCount = new AtomicInteger();
+
+	private static final Thread writer = new Thread(Log::drain, "Log");
+
+	static {
+		writer.setDaemon(true);
+		writer.start();
+
+		// Print what is still queued when the process exits
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "LogFlush"));
+	}
+
 	private Log() {
-		
+
 	}
-	
+
 	public static void d(String tag, String msg) {
 		if (!suppressLogs) {
-			System.out.println(tag + " " + msg);
+			enqueue(tag + " " + msg);
+		}
+	}
+
+	/**
+	 * Logs an error with its stack trace. Errors are logged even when debug
+	 * logs are suppressed.
+	 */
+	public static void e(String tag, String msg, Throwable tr) {
+		StringWriter trace = new StringWriter();
+		tr.printStackTrace(new PrintWriter(trace));
+
+		enqueue(tag + " " + msg + "\n" + trace);
+	}
+
+	private static void enqueue(String msg) {
+		if (pendingCount.incrementAndGet() > MAX_PENDING) {
+			pendingCount.decrementAndGet();
+			droppedCount.incrementAndGet();
+			return;
+		}
+
+		pending.add(msg);
+		LockSupport.unpark(writer);
+	}
+
+	private static void drain() {
+		while (true) {
+			flush();
+			LockSupport.park();
+		}
+	}
+
+	private static synchronized void flush() {
+		String msg;
+
+		while ((msg = pending.poll()) != null) {
+			pendingCount.decrementAndGet();
+			System.out.println(msg);
+		}
+
+		int dropped = droppedCount.getAndSet(0);
+
+		if (dropped > 0) {
+			System.out.println("Log " + dropped + " messages dropped");
 		}
 	}
 }
@@ -0,0 +1,202 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the output of all child processes on one shared thread, so a child
+ * never blocks on a full pipe however long it runs. Streams are polled for
+ * available bytes, which are copied into the process' ring buffer; the thread
+ * backs off while all children are quiet. When debug logging is on, output
+ * lines are echoed to the log, at most a few per second per process.
+ */
+public class LogPump implements Runnable {
+
+	private static final String TAG = "LogPump";
+
+	/**
+	 * Pause between polls while no output is pending
+	 */
+	private static final long IDLE_POLL_MS = 50;
+
+	/**
+	 * Lines echoed to the log per process and second
+	 */
+	private static final int MAX_LOG_LINES_PER_SECOND = 5;
+
+	private static LogPump instance;
+
+	private final CopyOnWriteArrayList<Source> sources = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Shared read buffer, only used by the pump thread
+	 */
+	private final byte[] buffer = new byte[8192];
+
+	/**
+	 * The output of one child process.
+	 */
+	private static class Source {
+		final String name;
+		final InputStream stream;
+		final java.lang.Process process;
+		final OutputRingBuffer output;
+
+		/**
+		 * Start of the current log rate window, in nanoseconds
+		 */
+		long windowStart;
+		int loggedLines;
+		long suppressedLines;
+
+		Source(String name, InputStream stream, java.lang.Process process, OutputRingBuffer output) {
+			this.name = name;
+			this.stream = stream;
+			this.process = process;
+			this.output = output;
+		}
+	}
+
+	private LogPump() {
+		Thread thread = new Thread(this, "LogPump");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Returns the pump shared by all child processes, starting it on first use.
+	 *
+	 * @return The shared pump.
+	 */
+	public static synchronized LogPump getDefault() {
+		if (instance == null) {
+			instance = new LogPump();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Starts draining the output of a process. The stream is dropped once the
+	 * process has exited and its output is drained, or once it is closed.
+	 *
+	 * @param name    Name used when echoing lines to the log.
+	 * @param process The child process, its standard output is drained.
+	 * @param output  Receives the drained bytes.
+	 */
+	public void register(String name, java.lang.Process process, OutputRingBuffer output) {
+		sources.add(new Source(name, process.getInputStream(), process, output));
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			boolean drained = false;
+
+			for (Source source : sources) {
+				try {
+					drained |= drain(source);
+				} catch (IOException ex) {
+					// Closed when the process was destroyed
+					sources.remove(source);
+				}
+			}
+
+			if (!drained) {
+				try {
+					TimeUnit.MILLISECONDS.sleep(IDLE_POLL_MS);
+				} catch (InterruptedException ex) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies the bytes available from a stream without blocking.
+	 *
+	 * @return True if any bytes were read.
+	 */
+	private boolean drain(Source source) throws IOException {
+		int available = source.stream.available();
+
+		if (available <= 0) {
+			if (!source.process.isAlive()) {
+				sources.remove(source);
+			}
+
+			return false;
+		}
+
+		int length = source.stream.read(buffer, 0, Math.min(available, buffer.length));
+
+		if (length < 0) {
+			sources.remove(source);
+			return false;
+		}
+
+		source.output.append(buffer, 0, length);
+
+		if (!Log.suppressLogs) {
+			logLines(source, length);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Echoes the lines just read to the log, within the rate limit.
+	 */
+	private void logLines(Source source, int length) {
+		long now = System.nanoTime();
+
+		if (now - source.windowStart >= 1000000000L) {
+			if (source.suppressedLines > 0) {
+				Log.d(TAG, source.name + ": " + source.suppressedLines + " lines not shown");
+			}
+
+			source.windowStart = now;
+			source.loggedLines = 0;
+			source.suppressedLines = 0;
+		}
+
+		int lineStart = 0;
+
+		for (int i = 0; i < length; i++) {
+			if (buffer[i] != '\n') {
+				continue;
+			}
+
+			if (source.loggedLines < MAX_LOG_LINES_PER_SECOND) {
+				Log.d(TAG, source.name + ": " + new String(buffer, lineStart, i - lineStart).trim());
+				source.loggedLines++;
+			} else {
+				source.suppressedLines++;
+			}
+
+			lineStart = i + 1;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps the most recent output of a child process as raw bytes in a fixed
+ * ring. Appending copies bytes and never allocates; the text is only decoded
+ * when it is asked for, e.g. for diagnostics after a decoder failed.
+ */
+public class OutputRingBuffer {
+
+	private final byte[] ring;
+
+	/**
+	 * Total number of bytes ever appended
+	 */
+	private long written;
+
+	/**
+	 * Creates a ring buffer.
+	 *
+	 * @param capacity Number of most recent bytes kept.
+	 */
+	public OutputRingBuffer(int capacity) {
+		ring = new byte[capacity];
+	}
+
+	/**
+	 * Appends bytes, overwriting the oldest ones once the ring is full.
+	 */
+	public synchronized void append(byte[] bytes, int offset, int length) {
+		if (length > ring.length) {
+			offset += length - ring.length;
+			written += length - ring.length;
+			length = ring.length;
+		}
+
+		int start = (int) (written % ring.length);
+		int first = Math.min(length, ring.length - start);
+
+		System.arraycopy(bytes, offset, ring, start, first);
+		System.arraycopy(bytes, offset + first, ring, 0, length - first);
+
+		written += length;
+	}
+
+	/**
+	 * Returns the total number of bytes appended, including the ones already
+	 * overwritten.
+	 */
+	public synchronized long getWritten() {
+		return written;
+	}
+
+	/**
+	 * Decodes the bytes held in the ring. If older output was overwritten, the
+	 * first, possibly partial, line is left out.
+	 *
+	 * @return The recent output.
+	 */
+	public synchronized String getText() {
+		int length = (int) Math.min(written, ring.length);
+		int start = (int) ((written - length) % ring.length);
+		byte[] bytes = new byte[length];
+
+		int first = Math.min(length, ring.length - start);
+		System.arraycopy(ring, start, bytes, 0, first);
+		System.arraycopy(ring, 0, bytes, first, length - first);
+
+		String text = new String(bytes, StandardCharsets.UTF_8);
+
+		if (written > ring.length) {
+			int newline = text.indexOf('\n');
+			text = newline < 0 ? "" : text.substring(newline + 1);
+		}
+
+		return text;
+	}
+}
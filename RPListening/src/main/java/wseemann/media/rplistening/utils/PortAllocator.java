@@ -0,0 +1,87 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ * 
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.utils;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Hands out local UDP ports to sessions running in the same process. A port is
+ * only handed out if it can be bound and no other session holds it, it stays
+ * reserved until released.
+ */
+public class PortAllocator {
+
+	/**
+	 * Number of port pairs tried before giving up
+	 */
+	private static final int MAX_ATTEMPTS = 100;
+
+	private static final Set<Integer> reservedPorts = new HashSet<>();
+
+	private PortAllocator() {
+
+	}
+
+	/**
+	 * Reserves two consecutive free UDP ports, e.g. for an RTP receiver which
+	 * also expects RTCP on the port above. Pairs are tried from the given port
+	 * upwards in steps of two.
+	 *
+	 * @param firstPort The first port to try.
+	 * @return The lower port of the reserved pair.
+	 * @throws IOException If no free pair was found.
+	 */
+	public static synchronized int reserveUdpPortPair(int firstPort) throws IOException {
+		for (int port = firstPort, i = 0; i < MAX_ATTEMPTS; port += 2, i++) {
+			if (!reservedPorts.contains(port) && !reservedPorts.contains(port + 1)
+					&& isFree(port) && isFree(port + 1)) {
+				reservedPorts.add(port);
+				reservedPorts.add(port + 1);
+				return port;
+			}
+		}
+
+		throw new IOException("No free UDP port pair from " + firstPort);
+	}
+
+	/**
+	 * Releases a pair reserved with {@link #reserveUdpPortPair(int)}.
+	 *
+	 * @param port The lower port of the pair.
+	 */
+	public static synchronized void releaseUdpPortPair(int port) {
+		reservedPorts.remove(port);
+		reservedPorts.remove(port + 1);
+	}
+
+	private static boolean isFree(int port) {
+		try {
+			// Binding succeeds only on a free port, release it right away
+			new DatagramSocket(port).close();
+			return true;
+		} catch (SocketException ex) {
+			return false;
+		}
+	}
+}
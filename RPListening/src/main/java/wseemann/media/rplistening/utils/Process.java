@@ -20,25 +20,87 @@
 package wseemann.media.rplistening.utils;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * A decoder child process and the UDP port pair it listens on. Each instance
+ * manages only its own process, so stopping one session's decoder leaves the
+ * decoders of other sessions running. The port pair is released once the
+ * process is gone.
+ */
 public class Process {
 
+    private static final String TAG = "Process";
+
     private final java.lang.Process process;
 
-    public Process(java.lang.Process process) {
+    /**
+     * Port the decoder listens on for RTP
+     */
+    private final int port;
+
+    /**
+     * Recent output of the process, drained by the log pump
+     */
+    private final OutputRingBuffer output;
+
+    private boolean destroyed;
+
+    public Process(java.lang.Process process, int port, OutputRingBuffer output) {
         this.process = process;
+        this.port = port;
+        this.output = output;
     }
 
+    /**
+     * Returns the most recent standard output and error of the process, for
+     * diagnostics.
+     */
+    public String getRecentOutput() {
+        return output.getText();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isAlive() {
+        return !destroyed && process.isAlive();
+    }
+
+    /**
+     * Stops the process, forcibly if it does not exit within a second, and
+     * releases its ports. Calling it again has no effect.
+     */
     public void destroy() {
-        if (process != null) {
-            try {
-                process.destroy();
-                process.getInputStream().close();
-                process.getOutputStream().close();
-                process.getErrorStream().close();
-                Runtime.getRuntime().exec("pkill ffplay");
-            } catch (IOException ex) {
+        synchronized (this) {
+            if (destroyed) {
+                return;
             }
+
+            destroyed = true;
         }
+
+        process.destroy();
+
+        try {
+            if (!process.waitFor(1, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException ex) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            process.getInputStream().close();
+            process.getOutputStream().close();
+            process.getErrorStream().close();
+        } catch (IOException ex) {
+            Log.d(TAG, ex.getMessage());
+        }
+
+        PortAllocator.releaseUdpPortPair(port);
+        DecoderProcessPool.getDefault().onDestroyed(this);
     }
 }
@@ -22,9 +22,12 @@ package wseemann.media.rplistening.utils;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.function.Consumer;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class ShellCommand {
 
@@ -34,49 +37,56 @@ public class ShellCommand {
 		isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
 	}
 	
+	/**
+	 * Starts an ffplay decoder listening for RTP on the given port. ffplay is
+	 * started directly, not through a shell, and reads the SDP describing the
+	 * stream from its standard input, so the returned process is the decoder
+	 * itself and can be stopped on its own.
+	 *
+	 * @param ffplayPath  Path of the ffplay binary.
+	 * @param decoderPort Port the decoder listens on.
+	 * @return The started process.
+	 * @throws IOException If the process could not be started.
+	 */
 	//https://stackoverflow.com/questions/26830617/running-bash-commands-in-java
 	//https://www.baeldung.com/run-shell-command-in-java
-	public Process execute(String command) {
-		int exitCode = -1;
-		java.lang.Process process = null;
-		
+	public Process execute(String ffplayPath, int decoderPort) throws IOException {
 		ProcessBuilder builder = new ProcessBuilder();
-		
-		if (isWindows) {
-		    builder.command("cmd.exe", "/c", "ffplay", "-i");
-		} else {
-		    //builder.command("bash", "-c", "/Users/wseemann/Desktop/private.sh");
-			
-			String ffplayPath = findFFmpeg(); //executeShellCommand(Constants.FFPLAY_PATH_CMD);
-			String ffplayCmd = Constants.FFPLAY_CMD.replace("<ffplay>", ffplayPath);
-			
-			StringBuilder sb = new StringBuilder("echo");
-			sb.append(" ");
-			sb.append("\"");
-			sb.append(Constants.SDP_FILE);
-			sb.append("\"");
-			sb.append(ffplayCmd);
-			builder.command("bash", "-c", sb.toString());
-		}
-		
+
+		List<String> command = new ArrayList<>();
+		command.add(ffplayPath);
+		command.addAll(Arrays.asList(Constants.FFPLAY_ARGS));
+		builder.command(command);
+
 		builder.directory(new File(System.getProperty("user.home")));
 		builder.redirectErrorStream(true);
-		
-		try {
-			process = builder.start();
-		
-			//StreamGobbler streamGobbler = new StreamGobbler(process.getInputStream(), System.out::println);
-			//Executors.newSingleThreadExecutor().submit(streamGobbler);
-		
-			//exitCode = process.waitFor();
-		} catch (Exception ex) {
-			ex.printStackTrace();
+
+		java.lang.Process process = builder.start();
+
+		try (OutputStream sdp = process.getOutputStream()) {
+			sdp.write(Constants.SDP_FILE.replace("<port>", String.valueOf(decoderPort)).getBytes(StandardCharsets.US_ASCII));
+		} catch (IOException ex) {
+			process.destroyForcibly();
+			throw ex;
 		}
-		
-		return new Process(process); //exitCode == 0;
+
+		// Drain the output so the decoder never blocks on a full pipe
+		OutputRingBuffer output = new OutputRingBuffer(Constants.DECODER_OUTPUT_BUFFER_SIZE);
+		LogPump.getDefault().register("ffplay:" + decoderPort, process, output);
+
+		return new Process(process, decoderPort, output);
 	}
-	
-	private String findFFmpeg() {
+
+	/**
+	 * Looks up the ffplay binary in the usual install locations.
+	 *
+	 * @return The path of ffplay, or "ffplay" to look it up on the PATH.
+	 */
+	public String findFFmpeg() {
+		if (isWindows) {
+			return "ffplay";
+		}
+
 	    String [] paths = {"/usr/local/bin/ffplay", "/usr/bin/ffplay"};
 		
 		for (int i = 0; i < paths.length; i++) {
@@ -86,7 +96,7 @@ public class ShellCommand {
 			}
 		}
 		
-		return "";
+		return "ffplay";
 	}
 	
 	private String executeShellCommand(String[] commands) {
@@ -112,20 +122,4 @@ public class ShellCommand {
 		
 		return output;
 	}
-	
-	private static class StreamGobbler implements Runnable {
-	    private InputStream inputStream;
-	    private Consumer<String> consumer;
-
-	    public StreamGobbler(InputStream inputStream, Consumer<String> consumer) {
-	        this.inputStream = inputStream;
-	        this.consumer = consumer;
-	    }
-
-	    @Override
-	    public void run() {
-	        new BufferedReader(new InputStreamReader(inputStream)).lines()
-	          .forEach(consumer);
-	    }
-	}
 }
@@ -0,0 +1,82 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pins threads to a CPU core on Linux. The kernel id of the calling thread is
+ * read from /proc/thread-self and handed to taskset, so no native code is
+ * needed. Pinning is best effort: where it is not available the thread keeps
+ * running wherever the scheduler puts it.
+ */
+public class ThreadAffinity {
+
+	private static final String TAG = "ThreadAffinity";
+
+	/**
+	 * Longest wait for taskset to finish
+	 */
+	private static final long TASKSET_TIMEOUT_MS = 2000;
+
+	private ThreadAffinity() {
+
+	}
+
+	/**
+	 * Pins the calling thread to a core. Starts a process, so it is meant to be
+	 * called once when a thread starts.
+	 *
+	 * @param cpu Index of the core.
+	 * @return True if the thread was pinned.
+	 */
+	public static boolean pinCurrentThread(int cpu) {
+		try {
+			// Links to <pid>/task/<tid>
+			Path link = Files.readSymbolicLink(Paths.get("/proc/thread-self"));
+			String tid = link.getFileName().toString();
+
+			java.lang.Process taskset = new ProcessBuilder("taskset", "-cp", Integer.toString(cpu), tid)
+					.redirectErrorStream(true)
+					.redirectOutput(new File("/dev/null"))
+					.start();
+
+			if (!taskset.waitFor(TASKSET_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				taskset.destroy();
+				return false;
+			}
+
+			boolean pinned = taskset.exitValue() == 0;
+			Log.d(TAG, Thread.currentThread().getName() + (pinned ? " pinned to CPU " : " not pinned to CPU ") + cpu);
+			return pinned;
+		} catch (IOException | UnsupportedOperationException ex) {
+			Log.d(TAG, "Cannot pin " + Thread.currentThread().getName() + ": " + ex.getMessage());
+			return false;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
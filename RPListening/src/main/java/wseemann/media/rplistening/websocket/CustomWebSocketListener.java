@@ -46,6 +46,7 @@ public class CustomWebSocketListener extends WebSocketListener {
 	@Override
 	public void onClosed(WebSocket webSocket, int code, String reason) {
 		super.onClosed(webSocket, code, reason);
+		listener.onClosed(code, reason);
 	}
 
 	@Override
@@ -56,6 +57,7 @@ public class CustomWebSocketListener extends WebSocketListener {
 	@Override
 	public void onFailure(WebSocket webSocket, Throwable t, Response response) {
 		super.onFailure(webSocket, t, response);
+		listener.onFailure(t);
 	}
 
 	@Override
@@ -23,4 +23,6 @@ public interface RokuWebSocketListener {
 	public void onAuthSuccess();
 	public void onSetAudioOutput();
 	public void onAuthFailed();
+	public void onFailure(Throwable error);
+	public void onClosed(int code, String reason);
 }
@@ -28,16 +28,20 @@ import wseemann.media.rplistening.websocket.model.QueryAudioDeviceRequest;
 import wseemann.media.rplistening.websocket.model.SetAudioOutputRequest;
 
 public class WebSocketConnectionImpl implements WebSocketConnection {
-	
+
+	/**
+	 * HTTP client shared by all connections, so sessions share its connection
+	 * pool and threads.
+	 */
+	private static final OkHttpClient client = new OkHttpClient();
+
 	private WebSocket websocket;
-	private OkHttpClient client;
 	private String url;
 	private RokuWebSocketListener listener;
 
 	public WebSocketConnectionImpl(final String url, final RokuWebSocketListener listener) {
 		this.url = url;
 		this.listener = listener;
-		client = new OkHttpClient();
 	}
 	
 	private void performAuth() {
@@ -0,0 +1,239 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.audio;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.jaredmdobson.concentus.OpusApplication;
+import io.github.jaredmdobson.concentus.OpusEncoder;
+import io.github.jaredmdobson.concentus.OpusException;
+import wseemann.media.rplistening.protocol.rtp.RTPPacket;
+
+public class OpusPacketDecoderTest {
+
+	private static final int SAMPLE_RATE = 48000;
+
+	private static final int CHANNELS = 2;
+
+	/**
+	 * 20 ms frames, in samples per channel and in RTP timestamp units
+	 */
+	private static final int FRAME_SIZE = 960;
+
+	/**
+	 * Sink that keeps the size of every write and whether it was silent
+	 */
+	private static class RecordingSink implements AudioSink {
+
+		final List<Integer> writes = new ArrayList<>();
+		final List<Boolean> silent = new ArrayList<>();
+
+		@Override
+		public void write(short[] pcm, int offset, int samples) {
+			boolean zero = true;
+
+			for (int i = offset; i < offset + samples; i++) {
+				zero &= pcm[i] == 0;
+			}
+
+			writes.add(samples);
+			silent.add(zero);
+		}
+
+		@Override
+		public long getLatency() {
+			return 0;
+		}
+
+		@Override
+		public long getDroppedSamples() {
+			return 0;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		int frames() {
+			return writes.size();
+		}
+
+		int samples() {
+			int samples = 0;
+
+			for (int write : writes) {
+				samples += write;
+			}
+
+			return samples;
+		}
+	}
+
+	private final RecordingSink sink = new RecordingSink();
+
+	private OpusPacketDecoder decoder;
+
+	private byte[] payload;
+
+	private int payloadLength;
+
+	@Before
+	public void setUp() throws IOException, OpusException {
+		decoder = new OpusPacketDecoder(SAMPLE_RATE, CHANNELS, sink);
+
+		// One frame of a 440 Hz tone, sent in every packet
+		short[] pcm = new short[FRAME_SIZE * CHANNELS];
+
+		for (int i = 0; i < FRAME_SIZE; i++) {
+			short sample = (short) (8000 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE));
+			pcm[i * CHANNELS] = sample;
+			pcm[i * CHANNELS + 1] = sample;
+		}
+
+		payload = new byte[1275];
+		payloadLength = new OpusEncoder(SAMPLE_RATE, CHANNELS, OpusApplication.OPUS_APPLICATION_AUDIO).encode(pcm, 0,
+				FRAME_SIZE, payload, 0, payload.length);
+	}
+
+	private void forward(int seq, long timestamp) {
+		ByteBuffer buffer = ByteBuffer.allocate(RTPPacket.FIXED_HEADER_SIZE + payloadLength);
+		buffer.put(0, (byte) 0x80);
+		buffer.put(1, (byte) 97);
+		buffer.putShort(2, (short) seq);
+		buffer.putInt(4, (int) timestamp);
+		buffer.putInt(8, 0x1234);
+		buffer.position(RTPPacket.FIXED_HEADER_SIZE);
+		buffer.put(payload, 0, payloadLength);
+		buffer.flip();
+
+		decoder.forward(buffer);
+	}
+
+	/**
+	 * Forwards the packet with the given sequence number of a stream without
+	 * DTX, starting at sequence number 100.
+	 */
+	private void forward(int seq) {
+		forward(seq, (seq - 100) * (long) FRAME_SIZE);
+	}
+
+	@Test
+	public void decodesEveryPacket() {
+		for (int seq = 100; seq < 105; seq++) {
+			forward(seq);
+		}
+
+		assertEquals(5, decoder.getDecodedPackets());
+		assertEquals(5 * FRAME_SIZE * CHANNELS, sink.samples());
+		assertEquals(0, decoder.getConcealedFrames() + decoder.getRecoveredFrames() + decoder.getDroppedFrames());
+	}
+
+	@Test
+	public void concealsALossAndRecoversTheLastFrame() {
+		forward(100);
+		forward(101);
+		forward(105);
+
+		assertEquals(2, decoder.getConcealedFrames());
+		assertEquals(1, decoder.getRecoveredFrames());
+		assertEquals(0, decoder.getDroppedFrames());
+		assertEquals(6 * FRAME_SIZE * CHANNELS, sink.samples());
+	}
+
+	@Test
+	public void concealsALossAcrossTheSequenceWrap() {
+		forward(65535, 0);
+		forward(1, 2 * FRAME_SIZE);
+
+		assertEquals(0, decoder.getConcealedFrames());
+		assertEquals(1, decoder.getRecoveredFrames());
+		assertEquals(3 * FRAME_SIZE * CHANNELS, sink.samples());
+	}
+
+	@Test
+	public void leavesADtxPeriodAlone() {
+		forward(100, 0);
+		forward(101, 10 * FRAME_SIZE);
+
+		assertEquals(1, decoder.getDtxGaps());
+		assertEquals(0, decoder.getConcealedFrames() + decoder.getRecoveredFrames() + decoder.getDroppedFrames());
+		assertEquals(2 * FRAME_SIZE * CHANNELS, sink.samples());
+	}
+
+	@Test
+	public void boundsTheLossByTheTimestamps() {
+		// Three packets lost, but the timestamps only leave room for one frame,
+		// the rest of the gap was DTX
+		forward(100, 0);
+		forward(104, 2 * FRAME_SIZE);
+
+		assertEquals(0, decoder.getConcealedFrames());
+		assertEquals(1, decoder.getRecoveredFrames());
+		assertEquals(0, decoder.getDtxGaps());
+		assertEquals(3 * FRAME_SIZE * CHANNELS, sink.samples());
+	}
+
+	@Test
+	public void dropsALossTheTimestampsLeaveNoRoomFor() {
+		forward(100, 0);
+		forward(103, FRAME_SIZE);
+
+		assertEquals(2, decoder.getDroppedFrames());
+		assertEquals(0, decoder.getConcealedFrames() + decoder.getRecoveredFrames());
+		assertEquals(2 * FRAME_SIZE * CHANNELS, sink.samples());
+	}
+
+	@Test
+	public void writesSilenceBeyondTheConcealment() {
+		// 200 ms lost, the last 120 ms are concealed
+		forward(100);
+		forward(111);
+
+		assertEquals(4, decoder.getDroppedFrames());
+		assertEquals(5, decoder.getConcealedFrames());
+		assertEquals(1, decoder.getRecoveredFrames());
+		assertEquals(12 * FRAME_SIZE * CHANNELS, sink.samples());
+
+		// The oldest frames of the gap are the silent ones
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(FRAME_SIZE * CHANNELS, (int) sink.writes.get(i));
+			assertTrue(sink.silent.get(i));
+		}
+	}
+
+	@Test
+	public void resetForgetsTheLastPacket() {
+		forward(100);
+		decoder.reset();
+		forward(200, 50000);
+
+		assertEquals(0, decoder.getConcealedFrames() + decoder.getRecoveredFrames() + decoder.getDroppedFrames());
+		assertEquals(0, decoder.getDtxGaps());
+		assertEquals(2, sink.frames());
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import wseemann.media.rplistening.protocol.utils.FakeSessionClock;
+
+public class SourceTableTest {
+
+	private final FakeSessionClock clock = new FakeSessionClock();
+
+	private final SourceTable table = new SourceTable();
+
+	private Source add(long ssrc) {
+		return table.putIfAbsent(new Source(clock, ssrc));
+	}
+
+	@Test
+	public void findsEverySourceAfterGrowing() {
+		for (long ssrc = 1; ssrc <= 100; ssrc++) {
+			add(ssrc * 0x10001L);
+		}
+
+		assertEquals(100, table.size());
+		assertEquals(100, table.members().length);
+
+		for (long ssrc = 1; ssrc <= 100; ssrc++) {
+			assertEquals(ssrc * 0x10001L, table.get(ssrc * 0x10001L).getSsrc());
+		}
+
+		assertNull(table.get(0x12345678L));
+	}
+
+	@Test
+	public void keepsTheFirstSourceForAnSsrc() {
+		Source first = add(0xDEADBEEFL);
+
+		assertSame(first, add(0xDEADBEEFL));
+		assertEquals(1, table.size());
+	}
+
+	@Test
+	public void handlesSsrcZero() {
+		assertNull(table.get(0));
+
+		Source source = add(0);
+
+		assertSame(source, table.get(0));
+	}
+
+	@Test
+	public void removedSourceIsGoneOthersRemain() {
+		for (long ssrc = 1; ssrc <= 20; ssrc++) {
+			add(ssrc);
+		}
+
+		assertEquals(7, table.remove(7).getSsrc());
+		assertNull(table.remove(7));
+		assertNull(table.get(7));
+		assertEquals(19, table.size());
+
+		for (long ssrc = 1; ssrc <= 20; ssrc++) {
+			if (ssrc != 7) {
+				assertEquals(ssrc, table.get(ssrc).getSsrc());
+			}
+		}
+	}
+
+	@Test
+	public void countsActiveSendersAsTheyChangeJoinAndLeave() {
+		Source a = add(1);
+		Source b = add(2);
+
+		a.setActiveSender(true);
+		a.setActiveSender(true);
+		b.setActiveSender(true);
+		assertEquals(2, table.getActiveSenders());
+
+		b.setActiveSender(false);
+		assertEquals(1, table.getActiveSenders());
+
+		table.remove(1);
+		assertEquals(0, table.getActiveSenders());
+
+		// Joining as an active sender counts at once
+		Source c = new Source(clock, 3);
+		c.setActiveSender(true);
+		table.putIfAbsent(c);
+		assertEquals(1, table.getActiveSenders());
+	}
+}
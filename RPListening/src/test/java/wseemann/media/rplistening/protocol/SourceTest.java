@@ -0,0 +1,163 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import wseemann.media.rplistening.protocol.utils.FakeSessionClock;
+
+public class SourceTest {
+
+	/**
+	 * 20 ms of 48 kHz audio per packet
+	 */
+	private static final int SAMPLES_PER_PACKET = 960;
+
+	private static final long PACKET_NANOS = 20000000L;
+
+	private final Source source = new Source(new FakeSessionClock(), 0x1234);
+
+	/**
+	 * Feeds a packet through the sequence and jitter state the way the receiver
+	 * does.
+	 */
+	private int receive(int seq, long timestamp, long arrivalTime) {
+		int result = source.updateSeq(seq, timestamp, arrivalTime);
+
+		if (result != Source.SEQ_INVALID) {
+			source.updateJitter(timestamp, arrivalTime);
+			source.setNoOfRTPPacketsRcvd(source.getNoOfRTPPacketsRcvd() + 1);
+		}
+
+		return result;
+	}
+
+	private int receive(int seq) {
+		return receive(seq, seq * (long) SAMPLES_PER_PACKET, seq * PACKET_NANOS);
+	}
+
+	@Test
+	public void countsCyclesAcrossTheWrap() {
+		receive(65534, 0, 0);
+		receive(65535, 960, PACKET_NANOS);
+		receive(0, 1920, 2 * PACKET_NANOS);
+		receive(1, 2880, 3 * PACKET_NANOS);
+
+		assertEquals(65536, source.getCycles());
+		assertEquals(65537, source.getExtendedMax());
+
+		source.UpdateStatistics();
+		assertEquals(0, source.getLost());
+	}
+
+	@Test
+	public void acceptsReorderedAndDuplicatePackets() {
+		receive(100);
+		receive(101);
+
+		assertEquals(Source.SEQ_VALID, receive(99));
+		assertEquals(Source.SEQ_VALID, receive(101));
+		assertEquals(101, source.getExtendedMax());
+	}
+
+	@Test
+	public void holdsBackASingleLargeJump() {
+		receive(100);
+
+		assertEquals(Source.SEQ_INVALID, receive(10000));
+		assertEquals(Source.SEQ_VALID, receive(101));
+		assertEquals(101, source.getExtendedMax());
+		assertEquals(2, source.getNoOfRTPPacketsRcvd());
+	}
+
+	@Test
+	public void restartsWhenTheNextPacketConfirmsTheJump() {
+		receive(100);
+		receive(101);
+
+		assertEquals(Source.SEQ_INVALID, receive(10000));
+		assertEquals(Source.SEQ_RESTART, receive(10001));
+		assertEquals(10001, source.getBaseSeq());
+		assertEquals(10001, source.getExtendedMax());
+		assertEquals(1, source.getNoOfRTPPacketsRcvd());
+	}
+
+	@Test
+	public void keepsTheStatisticsAcrossATimingDiscontinuity() {
+		receive(100);
+		receive(101);
+
+		// In sequence after a gap, but two seconds late, e.g. a stalled link
+		assertEquals(Source.SEQ_DISCONTINUITY, receive(104, 104 * 960L, 104 * PACKET_NANOS + 2000000000L));
+		assertEquals(Source.SEQ_VALID, receive(105, 105 * 960L, 105 * PACKET_NANOS + 2000000000L));
+
+		// The same stream, the reports carry on where they were
+		assertEquals(100, source.getBaseSeq());
+		assertEquals(105, source.getExtendedMax());
+		source.UpdateStatistics();
+		assertEquals(2, source.getLost());
+
+		// The jump is not counted as jitter
+		assertEquals(0, source.getJitter());
+	}
+
+	@Test
+	public void reportsLossAndFraction() {
+		for (int seq = 100; seq < 110; seq++) {
+			if (seq != 103 && seq != 107) {
+				receive(seq);
+			}
+		}
+
+		source.UpdateStatistics();
+		assertEquals(2, source.getLost());
+		assertEquals((2 << 8) / 10, (int) source.getFraction());
+
+		// Nothing new, the interval is empty
+		source.UpdateStatistics();
+		assertEquals(0, (int) source.getFraction());
+	}
+
+	@Test
+	public void jitterIsZeroForEvenlySpacedPackets() {
+		for (int seq = 0; seq < 50; seq++) {
+			receive(seq);
+		}
+
+		assertEquals(0, source.getJitter());
+	}
+
+	@Test
+	public void jitterFollowsRfc3550() {
+		receive(0);
+		receive(1);
+
+		// 10 ms late is 480 timestamp units, J += (|D| - J) / 16
+		receive(2, 2 * 960L, 2 * PACKET_NANOS + 10000000L);
+		assertEquals(30, source.getJitter());
+
+		// Back on time, the transit time moves by 480 again
+		receive(3);
+		assertEquals(58, source.getJitter());
+		assertEquals(58 * 1000.0 / 48000, source.getJitterMillis(), 0.001);
+	}
+}
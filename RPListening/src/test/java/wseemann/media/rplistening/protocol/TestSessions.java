@@ -0,0 +1,42 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol;
+
+import wseemann.media.rplistening.protocol.utils.SessionClock;
+
+/**
+ * Creates sessions for tests in other packages.
+ */
+public class TestSessions {
+
+	private TestSessions() {
+
+	}
+
+	/**
+	 * Creates a session without sockets, receiver, sender or decoder.
+	 *
+	 * @param clock Time source of the session.
+	 * @return The session.
+	 */
+	public static PrivateListeningSession create(SessionClock clock) {
+		return new PrivateListeningSession(clock);
+	}
+}
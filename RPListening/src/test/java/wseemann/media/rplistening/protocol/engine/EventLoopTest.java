@@ -0,0 +1,108 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.engine;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import wseemann.media.rplistening.protocol.utils.FakeSessionClock;
+
+public class EventLoopTest {
+
+	private final FakeSessionClock clock = new FakeSessionClock();
+
+	private EventLoop loop;
+
+	private int runs;
+
+	private final ScheduledTask task = new ScheduledTask() {
+		@Override
+		public void run() {
+			runs++;
+		}
+	};
+
+	@Before
+	public void setUp() throws IOException {
+		// Never started, the test drives the timers itself
+		loop = new EventLoop("test", clock);
+	}
+
+	@Test
+	public void taskRunsAtItsSubMillisecondDeadline() {
+		// A five second interval that is not a whole number of milliseconds
+		loop.schedule(task, 5000000000L + 400000);
+
+		clock.advance(5000000000L);
+		loop.runTimers();
+		assertEquals(0, runs);
+
+		clock.advance(400000);
+		loop.runTimers();
+		assertEquals(1, runs);
+		assertFalse(task.isScheduled());
+	}
+
+	@Test
+	public void reschedulingReplacesTheDeadline() {
+		loop.schedule(task, 10000000);
+		loop.schedule(task, 30000000);
+
+		clock.advance(20000000);
+		loop.runTimers();
+		assertEquals(0, runs);
+
+		clock.advance(10000000);
+		loop.runTimers();
+		assertEquals(1, runs);
+	}
+
+	@Test
+	public void cancelledTaskDoesNotRun() {
+		loop.schedule(task, 10000000);
+		loop.cancel(task);
+
+		clock.advance(20000000);
+		loop.runTimers();
+		assertEquals(0, runs);
+		assertFalse(task.isScheduled());
+	}
+
+	@Test
+	public void failingTaskDoesNotStopTheOthers() {
+		ScheduledTask failing = new ScheduledTask() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("test");
+			}
+		};
+
+		loop.schedule(failing, 10000000);
+		loop.schedule(task, 10000000);
+
+		clock.advance(10000000);
+		loop.runTimers();
+		assertEquals(1, runs);
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.engine;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+	private static final long MS = 1000000L;
+
+	private static ScheduledTask task(long deadline) {
+		ScheduledTask task = new ScheduledTask() {
+			@Override
+			public void run() {
+			}
+		};
+
+		task.deadline = deadline;
+		return task;
+	}
+
+	@Test
+	public void taskIsOnlyDueOnceItsExactDeadlinePassed() {
+		TimerWheel wheel = new TimerWheel(0);
+		ScheduledTask task = task(5 * MS + 1);
+		wheel.add(task);
+
+		// Same tick, a nanosecond early
+		assertNull(wheel.poll(5 * MS));
+		assertSame(task, wheel.poll(5 * MS + 1));
+		assertTrue(wheel.isEmpty());
+	}
+
+	@Test
+	public void tasksComeOutInTickOrder() {
+		TimerWheel wheel = new TimerWheel(0);
+		ScheduledTask late = task(30 * MS);
+		ScheduledTask early = task(10 * MS);
+		wheel.add(late);
+		wheel.add(early);
+
+		assertSame(early, wheel.poll(40 * MS));
+		assertSame(late, wheel.poll(40 * MS));
+		assertNull(wheel.poll(40 * MS));
+	}
+
+	@Test
+	public void taskMoreThanARotationAheadWaitsForItsRound() {
+		TimerWheel wheel = new TimerWheel(0);
+		// About two rotations of the 512 tick wheel ahead
+		ScheduledTask task = task(1100 * MS);
+		wheel.add(task);
+
+		for (long now = 0; now < 1100 * MS; now += MS) {
+			assertNull("fired at " + now, wheel.poll(now));
+		}
+
+		assertSame(task, wheel.poll(1100 * MS));
+	}
+
+	@Test
+	public void overdueTaskIsFoundAfterSleepingPastARotation() {
+		TimerWheel wheel = new TimerWheel(0);
+		ScheduledTask task = task(10 * MS);
+		wheel.add(task);
+
+		assertSame(task, wheel.poll(5000 * MS));
+	}
+
+	@Test
+	public void removedTaskNeverFires() {
+		TimerWheel wheel = new TimerWheel(0);
+		ScheduledTask kept = task(20 * MS);
+		ScheduledTask removed = task(10 * MS);
+		wheel.add(kept);
+		wheel.add(removed);
+		wheel.remove(removed);
+
+		assertSame(kept, wheel.poll(30 * MS));
+		assertNull(wheel.poll(30 * MS));
+	}
+
+	@Test
+	public void nextDeadlineFollowsRemovals() {
+		TimerWheel wheel = new TimerWheel(0);
+		ScheduledTask first = task(10 * MS);
+		ScheduledTask second = task(25 * MS);
+		wheel.add(second);
+		wheel.add(first);
+
+		assertEquals(10 * MS, wheel.nextDeadline());
+
+		wheel.remove(first);
+		assertEquals(25 * MS, wheel.nextDeadline());
+
+		ScheduledTask third = task(15 * MS);
+		wheel.add(third);
+		assertEquals(15 * MS, wheel.nextDeadline());
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.rtcp;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import wseemann.media.rplistening.protocol.PrivateListeningSession;
+import wseemann.media.rplistening.protocol.Source;
+import wseemann.media.rplistening.protocol.TestSessions;
+import wseemann.media.rplistening.protocol.engine.EventLoop;
+import wseemann.media.rplistening.protocol.rtp.JitterBuffer;
+import wseemann.media.rplistening.protocol.utils.FakeSessionClock;
+import wseemann.media.rplistening.protocol.utils.RTCPConstants;
+
+public class RTCPRoundTripTest {
+
+	private static final long DEVICE_SSRC = 0x5EED5EEDL;
+
+	private final FakeSessionClock clock = new FakeSessionClock();
+
+	private final RTCPWriter writer = new RTCPWriter();
+
+	private PrivateListeningSession session;
+
+	private RTCPParser parser;
+
+	@Before
+	public void setUp() {
+		session = TestSessions.create(clock);
+		parser = new RTCPParser(session);
+		writer.reset();
+	}
+
+	/**
+	 * Middle 32 bits of the session's current NTP time
+	 */
+	private long middleNtp() {
+		return (clock.ntpTime() >>> 16) & 0xFFFFFFFFL;
+	}
+
+	@Test
+	public void parsesASenderReport() {
+		long ntp = 0x0123456789ABCDEFL;
+		writer.beginSenderReport(DEVICE_SSRC, ntp, 48000, 10, 1000);
+		writer.writeSourceDescription(DEVICE_SSRC, "roku".getBytes());
+
+		assertTrue(parser.parse(writer.flip(), 0));
+
+		Source device = session.GetSource(DEVICE_SSRC);
+		assertTrue(device.hasSenderReport());
+		assertEquals(ntp, device.getSrNtpTimestamp());
+		assertEquals(48000, device.getSrRtpTimestamp());
+		assertEquals(0x456789ABL, device.getLst());
+	}
+
+	@Test
+	public void measuresTheRoundTripFromAReportBlock() {
+		clock.advance(1000000000L);
+
+		// 3277 units of 1/65536 s are 50 ms, 1000 of them were spent at the device
+		writer.beginReceiverReport(DEVICE_SSRC);
+		writer.writeReportBlock(session.SSRC, 0, 0, 100, 0, middleNtp() - 4277, 1000);
+		writer.writeReportBlock(0x1111, 0, 0, 100, 0, 1, 1);
+
+		assertTrue(parser.parse(writer.flip(), clock.nanoTime()));
+
+		assertEquals(1, session.getRoundTripTime().getCount());
+		assertEquals(3277 * 1000000L / 65536 / 2, session.getOneWayDelay());
+	}
+
+	@Test
+	public void measuresTheRoundTripFromAnExtendedReport() {
+		clock.advance(1000000000L);
+
+		// The device answers our reference time with a DLRR block, its second
+		// sub-block (SSRC, LRR, DLRR) is about us
+		ByteBuffer packet = ByteBuffer.allocate(36);
+		packet.put(0, (byte) 0x80);
+		packet.put(1, (byte) RTCPConstants.RTCP_XR);
+		packet.putShort(2, (short) 8);
+		packet.putInt(4, (int) DEVICE_SSRC);
+		packet.put(8, (byte) RTCPConstants.XR_DLRR);
+		packet.putShort(10, (short) 6);
+		packet.putInt(12, 0x2222);
+		packet.putInt(16, 1);
+		packet.putInt(20, 1);
+		packet.putInt(24, (int) session.SSRC);
+		packet.putInt(28, (int) (middleNtp() - 4277));
+		packet.putInt(32, 1000);
+
+		assertTrue(parser.parse(packet, clock.nanoTime()));
+
+		assertEquals(1, session.getRoundTripTime().getCount());
+		assertEquals(3277 * 1000000L / 65536 / 2, session.getOneWayDelay());
+	}
+
+	@Test
+	public void measuresTheRoundTripAtTheArrivalTime() {
+		clock.advance(1000000000L);
+		long arrivalTime = clock.nanoTime();
+		long lsr = middleNtp() - 4277;
+
+		// The report waited 20 ms in a receive batch before it was parsed
+		clock.advance(20000000L);
+		writer.beginReceiverReport(DEVICE_SSRC);
+		writer.writeReportBlock(session.SSRC, 0, 0, 100, 0, lsr, 1000);
+
+		assertTrue(parser.parse(writer.flip(), arrivalTime));
+
+		assertEquals(3277 * 1000000L / 65536 / 2, session.getOneWayDelay());
+	}
+
+	@Test
+	public void measuresTheRoundTripAcrossAWallClockStep() {
+		clock.advance(1000000000L);
+		long lsr = middleNtp() - 4277;
+
+		clock.stepWallClock(-3600000L);
+		writer.beginReceiverReport(DEVICE_SSRC);
+		writer.writeReportBlock(session.SSRC, 0, 0, 100, 0, lsr, 1000);
+
+		assertTrue(parser.parse(writer.flip(), clock.nanoTime()));
+
+		assertEquals(3277 * 1000000L / 65536 / 2, session.getOneWayDelay());
+	}
+
+	@Test
+	public void writesTheReceiverReferenceTime() {
+		writer.writeReceiverReferenceTime(session.SSRC, 0x0102030405060708L);
+		ByteBuffer packet = writer.flip();
+
+		assertEquals(20, packet.remaining());
+		assertEquals(0x80, packet.get(0) & 0xFF);
+		assertEquals(RTCPConstants.RTCP_XR, packet.get(1) & 0xFF);
+		assertEquals(4, packet.getShort(2));
+		assertEquals(RTCPConstants.XR_RRTR, packet.get(8));
+		assertEquals(2, packet.getShort(10));
+		assertEquals(0x0102030405060708L, packet.getLong(12));
+
+		// Nothing in it concerns the parser, but it must be valid
+		assertTrue(parser.parse(packet, 0));
+	}
+
+	@Test
+	public void handlesAByeAfterTheSourceDescription() {
+		writer.beginReceiverReport(DEVICE_SSRC);
+		writer.writeSourceDescription(DEVICE_SSRC, "roku".getBytes());
+		assertTrue(parser.parse(writer.flip(), 0));
+		assertEquals(2, session.GetNumberOfMembers());
+
+		writer.reset();
+		writer.beginReceiverReport(DEVICE_SSRC);
+		writer.writeBye(DEVICE_SSRC);
+		assertTrue(parser.parse(writer.flip(), 0));
+		assertEquals(1, session.GetNumberOfMembers());
+	}
+
+	@Test
+	public void rejectsATruncatedCompoundPacket() {
+		writer.beginReceiverReport(DEVICE_SSRC);
+		writer.writeReportBlock(session.SSRC, 0, 0, 100, 0, 0, 0);
+		ByteBuffer packet = writer.flip();
+		packet.limit(packet.limit() - 4);
+
+		assertFalse(parser.parse(packet, 0));
+		assertEquals(1, parser.getInvalidPackets());
+	}
+
+	@Test
+	public void rotatesReportBlocksPastThirtyOneSources() throws IOException {
+		RTCPSender sender = new RTCPSender(session, new EventLoop("test", clock), new JitterBuffer(48000, 10, 40, 200),
+				InetAddress.getLoopbackAddress(), 0, 0);
+		sender.sentAppPacketOne = true;
+		sender.sentAppPacketTwo = true;
+
+		for (long ssrc = 1; ssrc <= 40; ssrc++) {
+			session.GetSource(ssrc).setTimeOfLastRTPArrival(1);
+		}
+
+		Set<Long> reported = new HashSet<>();
+
+		assertEquals(31, readReportBlocks(sender.AssembleRTCPPacket(), reported));
+		assertEquals(31, readReportBlocks(sender.AssembleRTCPPacket(), reported));
+		assertEquals(40, reported.size());
+	}
+
+	/**
+	 * Parses a report the sender assembled and collects the SSRCs of its report
+	 * blocks.
+	 */
+	private int readReportBlocks(ByteBuffer packet, Set<Long> reported) {
+		assertTrue(parser.parse(packet, 0));
+		assertEquals(RTCPConstants.RTCP_RR, packet.get(1) & 0xFF);
+
+		int count = packet.get(0) & 0x1F;
+
+		for (int i = 0; i < count; i++) {
+			reported.add(packet.getInt(8 + i * RTCPWriter.REPORT_BLOCK_SIZE) & 0xFFFFFFFFL);
+		}
+
+		return count;
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.rtcp;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import wseemann.media.rplistening.protocol.rtp.JitterBuffer;
+import wseemann.media.rplistening.protocol.rtp.RTPPacket;
+
+public class VDLYControllerTest {
+
+	private static final long PACKET_NANOS = 20000000L;
+
+	private static final long START = 1000000000L;
+
+	private static final long DECODER_LATENCY_US = 150000;
+
+	private final JitterBuffer jitterBuffer = new JitterBuffer(48000, 10, 40, 200);
+
+	private final VDLYController controller = new VDLYController(500000, 50, 1000, 20);
+
+	private final RTPPacket packet = new RTPPacket();
+
+	/**
+	 * Puts a 20 ms packet of the stream starting at sequence number 100, arriving
+	 * late by the given delay.
+	 */
+	private void put(int seq, long lateNanos) {
+		ByteBuffer buffer = ByteBuffer.allocate(RTPPacket.FIXED_HEADER_SIZE + 4);
+		buffer.put(0, (byte) 0x80);
+		buffer.put(1, (byte) 97);
+		buffer.putShort(2, (short) seq);
+		buffer.putInt(4, (seq - 100) * 960);
+		assertTrue(packet.wrap(buffer));
+
+		jitterBuffer.put(packet, START + (seq - 100) * PACKET_NANOS + lateNanos);
+	}
+
+	@Test
+	public void clampsTheInitialDelay() {
+		assertEquals(500000, controller.getAdvertisedDelay());
+		assertEquals(50000, new VDLYController(10000, 50, 1000, 20).getAdvertisedDelay());
+		assertEquals(1000000, new VDLYController(5000000, 50, 1000, 20).getAdvertisedDelay());
+	}
+
+	@Test
+	public void followsTheBufferedMediaOfASteadyStream() {
+		put(100, 0);
+		put(101, 0);
+		put(102, 0);
+
+		assertEquals(0, jitterBuffer.getJitter());
+		// 60 ms buffered, more than the target delay, plus the decoder
+		assertEquals(60000 + DECODER_LATENCY_US, controller.computeDelay(jitterBuffer, DECODER_LATENCY_US));
+	}
+
+	@Test
+	public void isNotInflatedByReorderedPackets() {
+		put(100, 0);
+		put(102, 0);
+		put(101, 0);
+		put(103, 0);
+
+		assertEquals(80000 + DECODER_LATENCY_US, controller.computeDelay(jitterBuffer, DECODER_LATENCY_US));
+	}
+
+	@Test
+	public void addsHeadroomForJitter() {
+		for (int seq = 100; seq < 103; seq++) {
+			put(seq, seq % 2 == 0 ? 0 : 15000000L);
+		}
+
+		long jitter = jitterBuffer.getJitter();
+		assertTrue(jitter > 0);
+
+		long buffered = Math.max(jitterBuffer.getTargetDelay(), jitterBuffer.getBufferedDuration());
+		assertEquals((buffered + 2 * jitter) / 1000 + DECODER_LATENCY_US,
+				controller.computeDelay(jitterBuffer, DECODER_LATENCY_US));
+		assertTrue(controller.computeDelay(jitterBuffer, DECODER_LATENCY_US) > 60000 + DECODER_LATENCY_US);
+	}
+
+	@Test
+	public void onlyAdvertisesChangesBeyondTheHysteresis() {
+		put(100, 0);
+		put(101, 0);
+		put(102, 0);
+
+		assertTrue(controller.update(jitterBuffer, DECODER_LATENCY_US));
+		assertEquals(60000 + DECODER_LATENCY_US, controller.getAdvertisedDelay());
+
+		assertFalse(controller.update(jitterBuffer, DECODER_LATENCY_US));
+		assertFalse(controller.update(jitterBuffer, DECODER_LATENCY_US + 10000));
+		assertEquals(60000 + DECODER_LATENCY_US, controller.getAdvertisedDelay());
+
+		assertTrue(controller.update(jitterBuffer, DECODER_LATENCY_US + 25000));
+		assertEquals(85000 + DECODER_LATENCY_US, controller.getAdvertisedDelay());
+	}
+
+	@Test
+	public void clampsToTheBounds() {
+		put(100, 0);
+
+		assertEquals(1000000, controller.computeDelay(jitterBuffer, 2000000));
+		assertEquals(50000, new VDLYController(500000, 50, 1000, 20).computeDelay(new JitterBuffer(48000, 10, 10, 10),
+				0));
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.rtp;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class JitterBufferTest {
+
+	/**
+	 * 20 ms of 48 kHz audio per packet
+	 */
+	private static final int SAMPLES_PER_PACKET = 960;
+
+	private static final long PACKET_NANOS = 20000000L;
+
+	private static final long START = 1000000000L;
+
+	private final JitterBuffer jitterBuffer = new JitterBuffer(48000, 10, 40, 200);
+
+	private final RTPPacket packet = new RTPPacket();
+
+	/**
+	 * Puts the packet with the given sequence number, sent and received in step
+	 * with the stream starting at sequence number 100.
+	 */
+	private boolean put(int seq) {
+		return put(seq, START + (seq - 100) * PACKET_NANOS);
+	}
+
+	private boolean put(int seq, long arrivalTime) {
+		ByteBuffer buffer = ByteBuffer.allocate(RTPPacket.FIXED_HEADER_SIZE + 4);
+		buffer.put(0, (byte) 0x80);
+		buffer.put(1, (byte) 97);
+		buffer.putShort(2, (short) seq);
+		buffer.putInt(4, (seq - 100) * SAMPLES_PER_PACKET);
+		buffer.putInt(8, 0x1234);
+		assertTrue(packet.wrap(buffer));
+
+		return jitterBuffer.put(packet, arrivalTime);
+	}
+
+	private int pollSeq(long now) {
+		ByteBuffer slot = jitterBuffer.poll(now);
+		return slot == null ? -1 : slot.getShort(slot.position() + 2) & 0xFFFF;
+	}
+
+	@Test
+	public void holdsPacketsUntilTheTargetDelay() {
+		put(100);
+
+		assertEquals(-1, pollSeq(START + 30000000L));
+		assertEquals(100, pollSeq(START + 40000000L));
+		assertEquals(-1, pollSeq(Long.MAX_VALUE / 2));
+	}
+
+	@Test
+	public void playsReorderedPacketsInSequence() {
+		put(100);
+		put(102);
+		put(101);
+
+		assertEquals(1, jitterBuffer.getReorderedPackets());
+		assertEquals(3, jitterBuffer.getOccupancy());
+
+		long later = START + 1000000000L;
+		assertEquals(100, pollSeq(later));
+		assertEquals(101, pollSeq(later));
+		assertEquals(102, pollSeq(later));
+		assertEquals(0, jitterBuffer.getOccupancy());
+	}
+
+	@Test
+	public void skipsALostPacketOnceTheNextIsDue() {
+		put(100);
+		put(101);
+		put(103);
+
+		// 102 is missing, 103 is held until its own playout time
+		assertEquals(100, pollSeq(START + 40000000L));
+		assertEquals(101, pollSeq(START + 60000000L));
+		assertEquals(-1, pollSeq(START + 80000000L));
+		assertEquals(103, pollSeq(START + 100000000L));
+
+		assertEquals(1, jitterBuffer.getLostPackets());
+	}
+
+	@Test
+	public void dropsDuplicatesAndLatePackets() {
+		assertTrue(put(100));
+		assertFalse(put(100));
+		assertEquals(1, jitterBuffer.getDuplicatePackets());
+
+		assertEquals(100, pollSeq(START + 1000000000L));
+
+		// Arrives after its slot was played out
+		assertFalse(put(100));
+		assertEquals(1, jitterBuffer.getLatePackets());
+	}
+
+	@Test
+	public void handlesTheSequenceNumberWrap() {
+		put(65535, START);
+		put(0, START + PACKET_NANOS);
+		put(1, START + 2 * PACKET_NANOS);
+
+		long later = START + 1000000000L;
+		assertEquals(65535, pollSeq(later));
+		assertEquals(0, pollSeq(later));
+		assertEquals(1, pollSeq(later));
+		assertEquals(0, jitterBuffer.getLostPackets());
+	}
+
+	@Test
+	public void makesRoomForPacketsTooFarAhead() {
+		put(100);
+		put(100 + 64);
+
+		// The oldest packet was pushed out to make room
+		assertEquals(1, jitterBuffer.getLatePackets());
+		assertEquals(1, jitterBuffer.getOccupancy());
+
+		// The gap in between is lost once the packet after it plays
+		assertEquals(164, pollSeq(START + 10000000000L));
+		assertEquals(63, jitterBuffer.getLostPackets());
+	}
+
+	@Test
+	public void countsPacketsTooLargeForASlot() {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		buffer.put(0, (byte) 0x80);
+		buffer.put(1, (byte) 97);
+		assertTrue(packet.wrap(buffer));
+
+		assertFalse(jitterBuffer.put(packet, START));
+		assertEquals(1, jitterBuffer.getDiscardedPackets());
+		assertEquals(0, jitterBuffer.getOccupancy());
+	}
+
+	@Test
+	public void measuresTheBufferedDuration() {
+		put(100);
+		put(101);
+		put(102);
+
+		assertEquals(3 * PACKET_NANOS, jitterBuffer.getBufferedDuration());
+
+		// A reordered packet must not stretch the measured packet duration
+		put(104);
+		put(103);
+		put(105);
+
+		assertEquals(6 * PACKET_NANOS, jitterBuffer.getBufferedDuration());
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.rtp;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class RTPPacketTest {
+
+	private final RTPPacket packet = new RTPPacket();
+
+	private static ByteBuffer packet(int firstOctet, int length) {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.put(0, (byte) firstOctet);
+		buffer.put(1, (byte) (0x80 | 97));
+		buffer.putShort(2, (short) 0xFFFE);
+		buffer.putInt(4, 0xCAFEBABE);
+		buffer.putInt(8, 0x01020304);
+		return buffer;
+	}
+
+	@Test
+	public void readsTheFixedHeaderInPlace() {
+		assertTrue(packet.wrap(packet(0x80, 32)));
+
+		assertEquals(2, packet.getVersion());
+		assertTrue(packet.isMarker());
+		assertEquals(97, packet.getPayloadType());
+		assertEquals(0xFFFE, packet.getSequenceNumber());
+		assertEquals(0xCAFEBABEL, packet.getTimestamp());
+		assertEquals(0x01020304L, packet.getSSRC());
+		assertEquals(12, packet.getPayloadOffset());
+		assertEquals(20, packet.getPayloadLength());
+	}
+
+	@Test
+	public void rejectsAPacketShorterThanTheFixedHeader() {
+		assertFalse(packet.wrap(packet(0x80, 32), 0, 11));
+		assertEquals(0, packet.getPayloadLength());
+	}
+
+	@Test
+	public void rejectsACsrcListPastTheEnd() {
+		// Fifteen CSRCs need 72 bytes of header
+		assertFalse(packet.wrap(packet(0x8F, 64)));
+		assertTrue(packet.wrap(packet(0x8F, 72)));
+		assertEquals(72, packet.getPayloadOffset());
+		assertEquals(0, packet.getPayloadLength());
+	}
+
+	@Test
+	public void rejectsAnExtensionPastTheEnd() {
+		// Extension header announced, but not there
+		assertFalse(packet.wrap(packet(0x90, 14)));
+
+		ByteBuffer buffer = packet(0x90, 24);
+		buffer.putShort(12, (short) 0xBEDE);
+		buffer.putShort(14, (short) 3);
+		assertFalse(packet.wrap(buffer));
+
+		buffer.putShort(14, (short) 2);
+		assertTrue(packet.wrap(buffer));
+		assertEquals(0xBEDE, packet.getExtensionProfile());
+		assertEquals(8, packet.getExtensionLength());
+		assertEquals(24, packet.getPayloadOffset());
+	}
+
+	@Test
+	public void stripsPaddingAndRejectsTooMuch() {
+		ByteBuffer buffer = packet(0xA0, 20);
+		buffer.put(19, (byte) 4);
+		assertTrue(packet.wrap(buffer));
+		assertEquals(4, packet.getPayloadLength());
+
+		buffer.put(19, (byte) 9);
+		assertFalse(packet.wrap(buffer));
+	}
+
+	@Test
+	public void wrapsARegionOfALargerBuffer() {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		ByteBuffer source = packet(0x80, 16);
+		buffer.position(8);
+		buffer.put(source);
+
+		assertTrue(packet.wrap(buffer, 8, 16));
+		assertEquals(8, packet.getOffset());
+		assertEquals(0xFFFE, packet.getSequenceNumber());
+		assertEquals(4, packet.getPayloadLength());
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DriftEstimatorTest {
+
+	private static final long PACKET_NANOS = 20000000L;
+
+	private final DriftEstimator estimator = new DriftEstimator(5000, 24);
+
+	/**
+	 * Feeds packets from a sender whose clock is off by the given drift, with up
+	 * to 5 ms of network jitter on every packet.
+	 */
+	private void feed(double driftPpm, int packets) {
+		Random random = new Random(42);
+
+		for (int i = 0; i < packets; i++) {
+			long mediaTime = i * PACKET_NANOS;
+			long delay = (long) (mediaTime * driftPpm / 1000000) + random.nextInt(5000000);
+			estimator.add(1000000000L + mediaTime + delay, mediaTime);
+		}
+	}
+
+	@Test
+	public void staysZeroUntilEnoughWindows() {
+		// Two closed windows of five seconds
+		feed(50, 550);
+
+		assertEquals(0, estimator.getDrift(), 0);
+	}
+
+	@Test
+	public void recoversASlowSenderClock() {
+		feed(50, 6000);
+
+		assertEquals(50, estimator.getDriftPpm(), 2);
+	}
+
+	@Test
+	public void recoversAFastSenderClock() {
+		feed(-30, 6000);
+
+		assertEquals(-30, estimator.getDriftPpm(), 2);
+	}
+
+	@Test
+	public void findsNoDriftBetweenMatchingClocks() {
+		feed(0, 6000);
+
+		assertEquals(0, estimator.getDriftPpm(), 2);
+	}
+
+	@Test
+	public void resetForgetsTheDrift() {
+		feed(50, 6000);
+		estimator.reset();
+
+		assertEquals(0, estimator.getDrift(), 0);
+
+		feed(-30, 6000);
+		assertEquals(-30, estimator.getDriftPpm(), 2);
+	}
+}
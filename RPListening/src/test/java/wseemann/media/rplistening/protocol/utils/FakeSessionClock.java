@@ -0,0 +1,67 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.utils;
+
+/**
+ * Session clock for tests, time only moves when the test advances it.
+ */
+public class FakeSessionClock implements SessionClock {
+
+	private long nanoTime;
+
+	private long currentTimeMillis;
+
+	private final long ntpOrigin = SessionClock.toNtp(0);
+
+	@Override
+	public long nanoTime() {
+		return nanoTime;
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return currentTimeMillis;
+	}
+
+	@Override
+	public long ntpOrigin() {
+		return ntpOrigin;
+	}
+
+	/**
+	 * Moves both views of the clock forward.
+	 *
+	 * @param nanos Nanoseconds to advance by.
+	 */
+	public void advance(long nanos) {
+		nanoTime += nanos;
+		currentTimeMillis += nanos / 1000000;
+	}
+
+	/**
+	 * Steps the wall clock without moving the monotonic time, as a time sync
+	 * would.
+	 *
+	 * @param millis Milliseconds to step by, may be negative.
+	 */
+	public void stepWallClock(long millis) {
+		currentTimeMillis += millis;
+	}
+}
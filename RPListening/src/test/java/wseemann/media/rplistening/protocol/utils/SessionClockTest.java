@@ -0,0 +1,60 @@
+/*
+ * RPListening: An Open Source desktop client for Roku private listening.
+ *
+ * Copyright (C) 2021 William Seemann
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package wseemann.media.rplistening.protocol.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SessionClockTest {
+
+	private final FakeSessionClock clock = new FakeSessionClock();
+
+	@Test
+	public void startsAtTheWallClockAnchor() {
+		assertEquals(SessionClock.NTP_EPOCH_OFFSET << 32, clock.ntpTime());
+		assertEquals(SessionClock.toNtp(1500), SessionClock.toNtp(0) + (1L << 32) + (1L << 31));
+	}
+
+	@Test
+	public void resolvesBelowAMillisecond() {
+		clock.advance(250000L);
+
+		// 250 us are 1073741.824 units of 1/2^32 s
+		assertEquals(1073741, clock.ntpTime() - clock.ntpOrigin());
+	}
+
+	@Test
+	public void convertsAMonotonicTime() {
+		clock.advance(5000000000L);
+
+		assertEquals(clock.ntpOrigin() + (2L << 32) + (1L << 31), clock.ntpTime(2500000000L));
+	}
+
+	@Test
+	public void ignoresWallClockSteps() {
+		clock.advance(1000000000L);
+		long before = clock.ntpTime();
+
+		clock.stepWallClock(-3600000L);
+
+		assertEquals(before, clock.ntpTime());
+	}
+}